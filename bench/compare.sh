@@ -0,0 +1,155 @@
+#!/bin/bash
+# Runs every script in clox/test/benchmark and clox/script on clox and on
+# jlox, checks that both print the same thing, and prints a table of wall
+# time and peak RSS for each with jlox's ratio to clox. Every run is added
+# to bench/results/history.tsv and each script's jlox time is compared with
+# the run before, so slowdowns show up.
+#
+# usage: bench/compare.sh [--engine=tree|closure|jvm|vm] [script.lox...]
+#
+# TIMEOUT (seconds, default 300) bounds each run and JAVA_OPTS is passed to
+# java. Both interpreters are built into bench/results/build, the clox in
+# the tree is left alone, along with bench/maxrss.c, which reports each
+# run's peak RSS from the rusage it exits with.
+
+set -u
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+results=$root/bench/results
+build=$results/build
+history=$results/history.tsv
+timeout=${TIMEOUT:-300}
+
+engine=tree
+if [[ ${1:-} == --engine=* ]]; then
+    engine=${1#--engine=}
+    shift
+fi
+
+if [ $# -gt 0 ]; then
+    scripts=("$@")
+else
+    scripts=("$root"/clox/test/benchmark/*.lox "$root"/clox/script/*.lox)
+fi
+
+mkdir -p "$build/jlox" "$results/out"
+
+# clox is built optimized, which its Makefile does not do.
+(cd "$root/clox" && gcc -O2 -std=c11 -o "$build/clox" \
+    main.c chunk.c memory.c debug.c value.c vm.c compiler.c scanner.c object.c table.c -lm) \
+    || { echo "clox did not build" >&2; exit 1; }
+gcc -O2 -o "$build/maxrss" "$root/bench/maxrss.c" || { echo "maxrss did not build" >&2; exit 1; }
+# jlox is compiled as jlox/pom.xml compiles it, warnings and all.
+(cd "$root/jlox" && javac --release 17 -encoding UTF-8 -d "$build/jlox" $(find com -name '*.java')) \
+    || { echo "jlox did not build" >&2; exit 1; }
+
+# Blocks for $1 seconds without forking a sleep.
+exec {nap}<> <(:)
+nap(){
+    read -r -t "$1" -u "$nap"
+}
+
+# run <name> <command...>: runs it with its output in out/<name>, and sets
+# seconds, rss (peak kB, or - if it is not known) and status.
+run(){
+    local name=$1
+    shift
+    local out=$results/out/$name
+    rm -f "$out.rss"
+    local start=$EPOCHREALTIME
+    "$build/maxrss" "$out.rss" "$@" > "$out" 2> "$out.err" < /dev/null &
+    local pid=$!
+    (nap "$timeout"; kill "$pid" 2>/dev/null) &
+    local killer=$!
+
+    wait "$pid"
+    status=$?
+    local end=$EPOCHREALTIME
+    kill "$killer" 2>/dev/null
+    wait "$killer" 2>/dev/null
+    seconds=$(awk -v s="$start" -v e="$end" 'BEGIN { printf "%.3f", e - s }')
+    rss=$(cat "$out.rss" 2>/dev/null)
+    [ -n "$rss" ] || rss=-
+    echo "exit $status" >> "$out"
+}
+
+# normalize <output> <script>: the output with numbers to the 6 digits clox
+# prints and, if the script reads clock(), its elapsed times masked. The
+# benchmarks print each time after an "elapsed:", "elapsed", "loop" or
+# "equals" line or as their last number; every other line must match.
+normalize(){
+    local timed=0
+    grep -q 'clock()' "$2" && timed=1
+    awk -v timed="$timed" '
+        { line[NR] = $0 }
+        /^-?[0-9]+(\.[0-9]+)?([eE][-+]?[0-9]+)?$/ {
+            line[NR] = sprintf("%.6g", $0 + 0)
+            if (timed && label ~ /^(elapsed:?|loop|equals)$/) line[NR] = "<time>"
+            last = NR
+        }
+        { label = $0 }
+        END {
+            if (timed && last) line[last] = "<time>"
+            for (i = 1; i <= NR; i++) print line[i]
+        }
+    ' "$1"
+}
+
+ratio(){
+    awk -v a="$1" -v b="$2" 'BEGIN { if (a != "-" && b > 0) printf "%.2f", a / b; else print "-" }'
+}
+
+# kB as whole MB, or - if not known.
+mb(){
+    if [ "$1" = - ]; then echo -; else echo $(($1 / 1024)); fi
+}
+
+# Each script's jlox seconds in the last run recorded for this engine.
+declare -A previous
+if [ -f "$history" ]; then
+    last=$(awk -F'\t' -v e="$engine" '$3 == e { last = $1 } END { print last }' "$history")
+    while IFS=$'\t' read -r when commit eng script clox_s jlox_s clox_kb jlox_kb match; do
+        [ "$when" = "$last" ] && [ "$eng" = "$engine" ] && previous[$script]=$jlox_s
+    done < "$history"
+fi
+
+when=$(date -u +%Y-%m-%dT%H:%M:%SZ)
+commit=$(git -C "$root" rev-parse --short HEAD 2>/dev/null || echo unknown)
+[ -f "$history" ] || printf 'when\tcommit\tengine\tscript\tclox_s\tjlox_s\tclox_kb\tjlox_kb\toutput\n' > "$history"
+
+format='%-32s %9s %9s %7s %9s %9s %7s %-7s %s\n'
+printf "$format" script "clox s" "jlox s" ratio "clox MB" "jlox MB" ratio output "jlox vs last run"
+
+for script in "${scripts[@]}"; do
+    name=${script#"$root"/}
+    key=${name//\//_}
+
+    run "$key.clox" "$build/clox" "$script"
+    clox_s=$seconds clox_kb=$rss clox_status=$status
+    run "$key.jlox" java ${JAVA_OPTS:-} -cp "$build/jlox" com.craftinginterpreters.lox.Lox --engine="$engine" "$script"
+    jlox_s=$seconds jlox_kb=$rss jlox_status=$status
+
+    # 143 is the TERM the timeout sends.
+    if [ "$clox_status" = 143 ] || [ "$jlox_status" = 143 ]; then
+        match=timeout
+    elif cmp -s <(normalize "$results/out/$key.clox" "$script") <(normalize "$results/out/$key.jlox" "$script"); then
+        match=same
+    else
+        match=DIFF
+    fi
+
+    trend=-
+    if [ -n "${previous[$name]:-}" ]; then
+        trend=$(awk -v now="$jlox_s" -v then="${previous[$name]}" 'BEGIN {
+            change = then > 0 ? (now - then) / then * 100 : 0
+            printf "%+.1f%%%s", change, (change >= 10 ? " slower" : "")
+        }')
+    fi
+
+    printf "$format" "$name" "$clox_s" "$jlox_s" "$(ratio "$jlox_s" "$clox_s")" \
+        "$(mb "$clox_kb")" "$(mb "$jlox_kb")" "$(ratio "$jlox_kb" "$clox_kb")" "$match" "$trend"
+    printf '%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\n' "$when" "$commit" "$engine" "$name" \
+        "$clox_s" "$jlox_s" "$clox_kb" "$jlox_kb" "$match" >> "$history"
+done
+
+echo "Outputs are in $results/out, history in $history."
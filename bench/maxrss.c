@@ -0,0 +1,57 @@
+// maxrss <file> <command...>: runs the command and writes its peak RSS in
+// kB, from the rusage wait4() returns when it exits, to file. Exits as the
+// command did, with 128 plus the signal if one killed it.
+#define _DEFAULT_SOURCE
+#include <errno.h>
+#include <signal.h>
+#include <stdio.h>
+#include <sys/resource.h>
+#include <sys/types.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+static pid_t child = 0;
+
+// compare.sh's timeout kills this process, so the command gets it too.
+static void forward(int signal){
+    if (child > 0) kill(child, signal);
+}
+
+int main(int argc, char* argv[]){
+    if (argc < 3) {
+        fprintf(stderr, "Usage: maxrss <file> <command...>\n");
+        return 2;
+    }
+
+    // Set before forking so no TERM is missed; exec puts it back for the child.
+    signal(SIGTERM, forward);
+
+    child = fork();
+    if (child < 0) {
+        perror("fork");
+        return 2;
+    }
+    if (child == 0) {
+        execvp(argv[2], argv + 2);
+        perror(argv[2]);
+        _exit(127);
+    }
+
+    int status;
+    struct rusage usage;
+    while (wait4(child, &status, 0, &usage) < 0) {
+        if (errno != EINTR) {
+            perror("wait4");
+            return 2;
+        }
+    }
+
+    FILE* out = fopen(argv[1], "w");
+    if (out != NULL) {
+        fprintf(out, "%ld\n", usage.ru_maxrss);
+        fclose(out);
+    }
+
+    if (WIFSIGNALED(status)) return 128 + WTERMSIG(status);
+    return WEXITSTATUS(status);
+}
@@ -0,0 +1,771 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+import com.craftinginterpreters.lox.Stmt.Block;
+import com.craftinginterpreters.lox.Stmt.Break;
+import com.craftinginterpreters.lox.Stmt.Class;
+import com.craftinginterpreters.lox.Stmt.Continue;
+import com.craftinginterpreters.lox.Stmt.Expression;
+import com.craftinginterpreters.lox.Stmt.For;
+import com.craftinginterpreters.lox.Stmt.Function;
+import com.craftinginterpreters.lox.Stmt.If;
+import com.craftinginterpreters.lox.Stmt.Print;
+import com.craftinginterpreters.lox.Stmt.Return;
+import com.craftinginterpreters.lox.Stmt.Var;
+import com.craftinginterpreters.lox.Stmt.While;
+
+// Keeps the tree prepare() makes of a script in a file, so a later run of
+// the same script loads it instead of scanning, parsing, resolving and
+// optimizing it again. An entry is named by the SHA-256 of the script's
+// bytes, VERSION and whether the tree was optimized, so an edited script
+// or a different interpreter just misses. Only scripts without errors are
+// kept.
+//
+// An entry is "LOXC", the key, the CRC-32 of the rest of the entry, then
+// the statements in prefix order: a tag
+// byte for each node followed by its fields, with the bindings the
+// Resolver filled in. Ints are zigzag varints. A token is its type, its
+// line as the change from the token before, and its lexeme unless that is
+// the type's only spelling. Strings are written in full the first time and
+// as their index after that, so each name is stored once.
+final class AstCache {
+    // Bump this whenever the encoding, the nodes or what the Resolver,
+    // Optimizer and Hoister leave in them change.
+    static final int VERSION = 3;
+
+    private static final byte[] MAGIC = {'L', 'O', 'X', 'C'};
+
+    // Node tags. 0 is a missing (null) node.
+    private static final byte NONE = 0;
+    private static final byte ASSIGN = 1;
+    private static final byte LOGICAL = 2;
+    private static final byte SET = 3;
+    private static final byte SUPER = 4;
+    private static final byte THIS = 5;
+    private static final byte BINARY = 6;
+    private static final byte CALL = 7;
+    private static final byte GET = 8;
+    private static final byte GROUPING = 9;
+    private static final byte LITERAL = 10;
+    private static final byte UNARY = 11;
+    private static final byte VARIABLE = 12;
+    private static final byte TEMP = 13;
+    private static final byte CLASS = 14;
+    private static final byte BLOCK = 15;
+    private static final byte EXPRESSION = 16;
+    private static final byte FUNCTION = 17;
+    private static final byte RETURN = 18;
+    private static final byte PRINT = 19;
+    private static final byte IF = 20;
+    private static final byte VAR = 21;
+    private static final byte WHILE = 22;
+    private static final byte FOR = 23;
+    private static final byte BREAK = 24;
+    private static final byte CONTINUE = 25;
+
+    // Literal values.
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    // The Parser's TokenType.NIL for a missing for clause.
+    private static final byte TOKEN_TYPE = 5;
+    // A number that is a small integer, written as a varint.
+    private static final byte INTEGER = 6;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final Path directory;
+
+    AstCache(Path directory){
+        this.directory = directory;
+    }
+
+    // The tree for a script, loaded from the cache if it is there and made
+    // by context.prepare() and stored otherwise. Null if the script has an
+    // error. A cache that cannot be read or written is passed over.
+    List<Stmt> prepare(LoxContext context, Utf8Source source){
+        byte[] key = key(source.bytes(), context.engine.optimize);
+        Path entry = directory.resolve(hex(key) + ".loxc");
+
+        if (Files.isRegularFile(entry)) {
+            try {
+                List<Stmt> statements = read(ByteBuffer.wrap(Files.readAllBytes(entry)), key);
+                if (statements != null) return statements;
+            } catch (IOException | RuntimeException error) {
+                // Unreadable or not an entry, so made again below.
+            }
+        }
+
+        List<Stmt> statements = context.prepare(source, false);
+        if (statements == null) return null;
+
+        try {
+            Files.createDirectories(directory);
+            // Written aside and moved in, so a run reading the entry at the
+            // same time never sees half of it.
+            Path temporary = directory.resolve(entry.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+            try {
+                Files.write(temporary, write(statements, key));
+                Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException error) {
+            // Not cached; the script still runs.
+        }
+        return statements;
+    }
+
+    static byte[] key(ByteBuffer source, boolean optimize){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(MAGIC);
+            digest.update(new byte[]{(byte) VERSION, (byte) (VERSION >>> 8), (byte) (optimize ? 1 : 0)});
+            digest.update(source);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException error) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private static String hex(byte[] bytes){
+        StringBuilder text = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            text.append(Character.forDigit((b >> 4) & 0xf, 16));
+            text.append(Character.forDigit(b & 0xf, 16));
+        }
+        return text.toString();
+    }
+
+    static byte[] write(List<Stmt> statements, byte[] key){
+        Writer writer = new Writer();
+        writer.bytes(MAGIC);
+        writer.bytes(key);
+        int start = writer.size + 4;
+        writer.bytes(new byte[4]);
+        writer.statements(statements);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(writer.buffer, start, writer.size - start);
+        int crc = (int) checksum.getValue();
+        for (int i = 0; i < 4; i++) {
+            writer.buffer[start - 4 + i] = (byte) (crc >>> (i * 8));
+        }
+        return Arrays.copyOf(writer.buffer, writer.size);
+    }
+
+    // A tree on its own, without the header of an entry.
+    static byte[] encode(List<Stmt> statements){
+        Writer writer = new Writer();
+        writer.statements(statements);
+        return Arrays.copyOf(writer.buffer, writer.size);
+    }
+
+    // A new copy of a tree encode() made. The property caches of its Get
+    // and Set nodes are added to caches.
+    static List<Stmt> decode(byte[] tree, List<PropertyCache> caches){
+        return new Reader(ByteBuffer.wrap(tree), caches).statements();
+    }
+
+    // The statements in an entry, or null if it is not the entry for key.
+    static List<Stmt> read(ByteBuffer entry, byte[] key){
+        byte[] header = new byte[MAGIC.length + key.length];
+        if (entry.remaining() < header.length + 4) return null;
+        entry.get(header);
+        if (!Arrays.equals(header, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) return null;
+        if (!Arrays.equals(header, MAGIC.length, header.length, key, 0, key.length)) return null;
+
+        // A file damaged after it was written still has the right header.
+        int crc = 0;
+        for (int i = 0; i < 4; i++) crc |= (entry.get() & 0xff) << (i * 8);
+        CRC32 checksum = new CRC32();
+        checksum.update(entry.duplicate());
+        if ((int) checksum.getValue() != crc) return null;
+
+        List<Stmt> statements = new Reader(entry, null).statements();
+        return entry.hasRemaining() ? null : statements;
+    }
+
+    private static final class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private byte[] buffer = new byte[4096];
+        private int size = 0;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private int line = 0;
+
+        private void ensure(int count){
+            if (size + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(size + count, buffer.length * 2));
+            }
+        }
+
+        private void tag(byte tag){
+            ensure(1);
+            buffer[size++] = tag;
+        }
+
+        private void bytes(byte[] bytes){
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void integer(int value){
+            ensure(5);
+            int bits = (value << 1) ^ (value >> 31);
+            while ((bits & ~0x7f) != 0) {
+                buffer[size++] = (byte) ((bits & 0x7f) | 0x80);
+                bits >>>= 7;
+            }
+            buffer[size++] = (byte) bits;
+        }
+
+        private void number(double value){
+            ensure(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                buffer[size++] = (byte) (bits >>> (i * 8));
+            }
+        }
+
+        // Indexes start at 1, so 0 can stand for a token's own spelling.
+        private void string(String string){
+            Integer index = strings.get(string);
+            if (index != null) {
+                integer(index);
+                return;
+            }
+            strings.put(string, strings.size() + 1);
+            integer(strings.size());
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            integer(utf8.length);
+            bytes(utf8);
+        }
+
+        private void token(Token token){
+            tag((byte) token.type.ordinal());
+            integer(token.line - line);
+            line = token.line;
+            String lexeme = token.lexeme();
+            if (lexeme.equals(TokenBuffer.lexeme(token.type))) {
+                integer(0);
+            } else {
+                string(lexeme);
+            }
+        }
+
+        private void tokens(List<Token> tokens){
+            integer(tokens.size());
+            for (Token token : tokens) token(token);
+        }
+
+        private void expr(Expr expr){
+            if (expr == null) {
+                tag(NONE);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void exprs(List<Expr> exprs){
+            integer(exprs.size());
+            for (Expr expr : exprs) expr(expr);
+        }
+
+        private void stmt(Stmt stmt){
+            if (stmt == null) {
+                tag(NONE);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void statements(List<Stmt> statements){
+            integer(statements.size());
+            for (Stmt stmt : statements) stmt(stmt);
+        }
+
+        @Override
+        public Void visitAssignExpr(Assign expr) {
+            tag(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Logical expr) {
+            tag(LOGICAL);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            tag(SET);
+            expr(expr.object);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Super expr) {
+            tag(SUPER);
+            token(expr.keyword);
+            token(expr.method);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(This expr) {
+            tag(THIS);
+            token(expr.keyword);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        // generic is learned while running, so a loaded tree starts over.
+        @Override
+        public Void visitBinaryExpr(Binary expr) {
+            tag(BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Call expr) {
+            tag(CALL);
+            expr(expr.callee);
+            token(expr.paren);
+            exprs(expr.arguments);
+            integer(expr.isTailCall ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Get expr) {
+            tag(GET);
+            expr(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Grouping expr) {
+            tag(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Literal expr) {
+            tag(LITERAL);
+            Object value = expr.value;
+            if (value == null) {
+                tag(NIL);
+            } else if (value instanceof Boolean) {
+                tag((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                double number = (Double) value;
+                if (number == (int) number && Double.doubleToRawLongBits(number) != Double.doubleToRawLongBits(-0.0)) {
+                    tag(INTEGER);
+                    integer((int) number);
+                } else {
+                    tag(NUMBER);
+                    number(number);
+                }
+            } else if (value instanceof TokenType) {
+                tag(TOKEN_TYPE);
+                tag((byte) ((TokenType) value).ordinal());
+            } else {
+                tag(STRING);
+                string(value.toString());
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Unary expr) {
+            tag(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Variable expr) {
+            tag(VARIABLE);
+            token(expr.name);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitTempExpr(Temp expr) {
+            tag(TEMP);
+            token(expr.name);
+            expr(expr.expression);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Class stmt) {
+            tag(CLASS);
+            token(stmt.name);
+            expr(stmt.superclass);
+            integer(stmt.methods.size());
+            for (Function method : stmt.methods) stmt(method);
+            integer(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Block stmt) {
+            tag(BLOCK);
+            statements(stmt.statements);
+            integer(stmt.frameSize);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Expression stmt) {
+            tag(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Function stmt) {
+            tag(FUNCTION);
+            token(stmt.name);
+            tokens(stmt.params);
+            statements(stmt.body);
+            integer(stmt.slot);
+            integer(stmt.frameSize);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Return stmt) {
+            tag(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Print stmt) {
+            tag(PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(If stmt) {
+            tag(IF);
+            expr(stmt.Condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Var stmt) {
+            tag(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            integer(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(While stmt) {
+            tag(WHILE);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(For stmt) {
+            tag(FOR);
+            stmt(stmt.initializer);
+            expr(stmt.condition);
+            expr(stmt.increment);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Break stmt) {
+            tag(BREAK);
+            token(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Continue stmt) {
+            tag(CONTINUE);
+            token(stmt.keyword);
+            return null;
+        }
+    }
+
+    // Reads what Writer wrote. Anything malformed throws, which the cache
+    // takes for a miss.
+    private static final class Reader {
+        private final ByteBuffer entry;
+        // Where the caches of new Get and Set nodes go, if anywhere.
+        private final List<PropertyCache> caches;
+        private final List<String> strings = new ArrayList<>();
+        private int line = 0;
+
+        Reader(ByteBuffer entry, List<PropertyCache> caches){
+            this.entry = entry;
+            this.caches = caches;
+        }
+
+        private int integer(){
+            int bits = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = entry.get();
+                bits |= (b & 0x7f) << shift;
+                if (b >= 0) break;
+            }
+            return (bits >>> 1) ^ -(bits & 1);
+        }
+
+        // The length of a list. Each element takes at least a byte, so a
+        // count the rest of the entry cannot hold is damage, and is caught
+        // before it sizes a list.
+        private int count(){
+            int count = integer();
+            if (count < 0 || count > entry.remaining()) throw new IllegalStateException("Bad count.");
+            return count;
+        }
+
+        private double number(){
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits |= (entry.get() & 0xffL) << (i * 8);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        // Null for index 0, a token's own spelling.
+        private String string(){
+            int index = integer();
+            if (index == 0) return null;
+            if (index <= strings.size()) return strings.get(index - 1);
+            if (index != strings.size() + 1) throw new IllegalStateException("Bad string index.");
+
+            int length = count();
+            String string = new String(entry.array(), entry.arrayOffset() + entry.position(), length, StandardCharsets.UTF_8);
+            entry.position(entry.position() + length);
+            strings.add(string);
+            return string;
+        }
+
+        private Token token(){
+            TokenType type = TOKEN_TYPES[entry.get()];
+            line += integer();
+            String lexeme = string();
+            if (lexeme == null) lexeme = TokenBuffer.lexeme(type);
+            return new Token(type, lexeme, null, line);
+        }
+
+        private List<Token> tokenList(){
+            int count = count();
+            List<Token> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) list.add(token());
+            return list;
+        }
+
+        private List<Expr> exprs(){
+            int count = count();
+            List<Expr> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) list.add(expr());
+            return list;
+        }
+
+        List<Stmt> statements(){
+            int count = count();
+            List<Stmt> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) list.add(stmt());
+            return list;
+        }
+
+        private Expr expr(){
+            byte tag = entry.get();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case ASSIGN: {
+                    Assign expr = new Assign(token(), expr());
+                    expr.depth = integer();
+                    expr.slot = integer();
+                    return expr;
+                }
+                case LOGICAL:
+                    return new Logical(expr(), token(), expr());
+                case SET: {
+                    Expr.Set expr = new Expr.Set(expr(), token(), expr());
+                    if (caches != null) caches.add(expr.cache);
+                    return expr;
+                }
+                case SUPER: {
+                    Super expr = new Super(token(), token());
+                    expr.depth = integer();
+                    expr.slot = integer();
+                    return expr;
+                }
+                case THIS: {
+                    This expr = new This(token());
+                    expr.depth = integer();
+                    expr.slot = integer();
+                    return expr;
+                }
+                case BINARY:
+                    return new Binary(expr(), token(), expr());
+                case CALL: {
+                    Call expr = new Call(expr(), token(), exprs());
+                    expr.isTailCall = integer() != 0;
+                    return expr;
+                }
+                case GET: {
+                    Get expr = new Get(expr(), token());
+                    if (caches != null) caches.add(expr.cache);
+                    return expr;
+                }
+                case GROUPING:
+                    return new Grouping(expr());
+                case LITERAL:
+                    return new Literal(literal());
+                case UNARY:
+                    return new Unary(token(), expr());
+                case VARIABLE: {
+                    Variable expr = new Variable(token());
+                    expr.depth = integer();
+                    expr.slot = integer();
+                    return expr;
+                }
+                case TEMP: {
+                    Temp expr = new Temp(token(), expr());
+                    expr.depth = integer();
+                    expr.slot = integer();
+                    return expr;
+                }
+                default:
+                    throw new IllegalStateException("Bad expression tag " + tag + ".");
+            }
+        }
+
+        private Object literal(){
+            byte tag = entry.get();
+            switch (tag) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return number();
+                case INTEGER: return (double) integer();
+                case STRING: return string();
+                case TOKEN_TYPE: return TOKEN_TYPES[entry.get()];
+                default:
+                    throw new IllegalStateException("Bad literal tag " + tag + ".");
+            }
+        }
+
+        private Stmt stmt(){
+            byte tag = entry.get();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case CLASS: {
+                    Token name = token();
+                    Variable superclass = (Variable) expr();
+                    int count = count();
+                    List<Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) methods.add((Function) stmt());
+                    Class stmt = new Class(name, superclass, methods);
+                    stmt.slot = integer();
+                    return stmt;
+                }
+                case BLOCK: {
+                    Block stmt = new Block(statements());
+                    stmt.frameSize = integer();
+                    return stmt;
+                }
+                case EXPRESSION:
+                    return new Expression(expr());
+                case FUNCTION: {
+                    Function stmt = new Function(token(), tokenList(), statements());
+                    stmt.slot = integer();
+                    stmt.frameSize = integer();
+                    return stmt;
+                }
+                case RETURN:
+                    return new Return(token(), expr());
+                case PRINT:
+                    return new Print(expr());
+                case IF:
+                    return new If(expr(), stmt(), stmt());
+                case VAR: {
+                    Var stmt = new Var(token(), expr());
+                    stmt.slot = integer();
+                    return stmt;
+                }
+                case WHILE:
+                    return new While(expr(), stmt());
+                case FOR:
+                    return new For(stmt(), expr(), expr(), stmt());
+                case BREAK:
+                    return new Break(token());
+                case CONTINUE:
+                    return new Continue(token());
+                default:
+                    throw new IllegalStateException("Bad statement tag " + tag + ".");
+            }
+        }
+    }
+}
@@ -12,19 +12,37 @@ import com.craftinginterpreters.lox.Expr.Literal;
 import com.craftinginterpreters.lox.Expr.Logical;
 import com.craftinginterpreters.lox.Expr.Set;
 import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
 import com.craftinginterpreters.lox.Expr.This;
 import com.craftinginterpreters.lox.Expr.Unary;
 import com.craftinginterpreters.lox.Expr.Variable;
-
-public class AstPrinter implements Expr.Visitor<String> {
+import com.craftinginterpreters.lox.Stmt.Block;
+import com.craftinginterpreters.lox.Stmt.Break;
+import com.craftinginterpreters.lox.Stmt.Class;
+import com.craftinginterpreters.lox.Stmt.Continue;
+import com.craftinginterpreters.lox.Stmt.Expression;
+import com.craftinginterpreters.lox.Stmt.For;
+import com.craftinginterpreters.lox.Stmt.Function;
+import com.craftinginterpreters.lox.Stmt.If;
+import com.craftinginterpreters.lox.Stmt.Print;
+import com.craftinginterpreters.lox.Stmt.Return;
+import com.craftinginterpreters.lox.Stmt.Var;
+import com.craftinginterpreters.lox.Stmt.While;
+
+// Prints a tree as s-expressions, one line per top-level statement.
+public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
     String print(Expr expr){
         return expr.accept(this);
     }
 
+    String print(Stmt stmt){
+        return stmt.accept(this);
+    }
+
     @Override
     public String visitBinaryExpr(Binary expr) {
-        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+        return parenthesize(expr.operator.lexeme(), expr.left, expr.right);
     }
 
     @Override
@@ -35,95 +53,180 @@ public class AstPrinter implements Expr.Visitor<String> {
     @Override
     public String visitLiteralExpr(Literal expr) {
         if(expr.value == null) return "nil";
-        return expr.value.toString();
+        if (expr.value instanceof String) return "\"" + expr.value + "\"";
+        return Interpreter.stringify(expr.value);
     }
 
     @Override
     public String visitUnaryExpr(Unary expr) {
-        return parenthesize(expr.operator.lexeme, expr.right);
-    }
-
-    private String parenthesize(String name, Expr... exprs){
-        StringBuilder builder = new StringBuilder();
-
-        builder.append("(").append(name);
-        for (Expr expr : exprs) {
-            builder.append(" ");
-            builder.append(expr.accept(this));
-        }
-        builder.append(")");
-
-        return builder.toString();
+        return parenthesize(expr.operator.lexeme(), expr.right);
     }
-    
-    public static void main(String[] args){
-        Expr expression = new Binary(
-            new Unary(
-                new Token(TokenType.MINUS, "-", null, 1),
-                new Literal(123)), 
-            new Token(TokenType.STAR, "*", null, 1), 
-            new Grouping(
-                new Unary(
-                new Token(TokenType.MINUS, "-", null, 1),
-                new Literal(45.67))
-            ));
 
-        List<Token> tokens = new ArrayList<>();
-        tokens.add(new Token(TokenType.NUMBER, "123", 123, 1));
-        tokens.add(new Token(TokenType.BANG_EQUAL, "!=", null, 1));
-        tokens.add(new Token(TokenType.NUMBER, "123", 123, 1));
-        tokens.add(new Token(TokenType.EOF, "", null, 1));
-
-        Parser parser = new Parser(tokens);
-        // Expr expession_2 = parser.parse();
-        System.out.println(new AstPrinter().print(expression));
+    @Override
+    public String visitVariableExpr(Variable expr) {
+        return expr.name.lexeme();
     }
 
     @Override
-    public String visitVariableExpr(Variable expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitVariableExpr'");
+    public String visitTempExpr(Temp expr) {
+        return parenthesize("temp", expr.name.lexeme(), expr.expression);
     }
 
     @Override
     public String visitAssignExpr(Assign expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitAssignExpr'");
+        return parenthesize("=", expr.name.lexeme(), expr.value);
     }
 
     @Override
     public String visitLogicalExpr(Logical expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitLogicalExpr'");
+        return parenthesize(expr.operator.lexeme(), expr.left, expr.right);
     }
 
     @Override
     public String visitCallExpr(Call expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitCallExpr'");
+        return parenthesize(expr.isTailCall ? "tail-call" : "call", expr.callee, expr.arguments);
     }
 
     @Override
     public String visitGetExpr(Get expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitGetExpr'");
+        return parenthesize(".", expr.object, expr.name.lexeme());
     }
 
     @Override
     public String visitSetExpr(Set expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitSetExpr'");
+        return parenthesize("=", expr.object, expr.name.lexeme(), expr.value);
     }
 
     @Override
     public String visitThisExpr(This expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitThisExpr'");
+        return "this";
     }
 
     @Override
     public String visitSuperExpr(Super expr) {
-        // TODO Auto-generated method stub
-        throw new UnsupportedOperationException("Unimplemented method 'visitSuperExpr'");
+        return parenthesize("super", expr.method.lexeme());
+    }
+
+    @Override
+    public String visitClassStmt(Class stmt) {
+        List<Object> parts = new ArrayList<>();
+        parts.add(stmt.name.lexeme());
+        if (stmt.superclass != null) {
+            parts.add("<");
+            parts.add(stmt.superclass);
+        }
+        parts.add(stmt.methods);
+        return parenthesize("class", parts.toArray());
+    }
+
+    @Override
+    public String visitBlockStmt(Block stmt) {
+        return parenthesize("block", stmt.statements);
+    }
+
+    @Override
+    public String visitExpressionStmt(Expression stmt) {
+        return parenthesize(";", stmt.expression);
+    }
+
+    @Override
+    public String visitFunctionStmt(Function stmt) {
+        StringBuilder name = new StringBuilder(stmt.name.lexeme()).append("(");
+        for (int i = 0; i < stmt.params.size(); i++) {
+            if (i > 0) name.append(" ");
+            name.append(stmt.params.get(i).lexeme());
+        }
+        name.append(")");
+        return parenthesize("fun", name.toString(), stmt.body);
+    }
+
+    @Override
+    public String visitReturnStmt(Return stmt) {
+        if (stmt.value == null) return "(return)";
+        return parenthesize("return", stmt.value);
+    }
+
+    @Override
+    public String visitPrintStmt(Print stmt) {
+        return parenthesize("print", stmt.expression);
+    }
+
+    @Override
+    public String visitIfStmt(If stmt) {
+        if (stmt.elseBranch == null) {
+            return parenthesize("if", stmt.Condition, stmt.thenBranch);
+        }
+        return parenthesize("if-else", stmt.Condition, stmt.thenBranch, stmt.elseBranch);
+    }
+
+    @Override
+    public String visitVarStmt(Var stmt) {
+        if (stmt.initializer == null) return parenthesize("var", stmt.name.lexeme());
+        return parenthesize("var", stmt.name.lexeme(), "=", stmt.initializer);
+    }
+
+    @Override
+    public String visitWhileStmt(While stmt) {
+        return parenthesize("while", stmt.condition, stmt.body);
+    }
+
+    @Override
+    public String visitForStmt(For stmt) {
+        return parenthesize("for", stmt.initializer, stmt.condition, stmt.increment, stmt.body);
+    }
+
+    @Override
+    public String visitBreakStmt(Break stmt) {
+        return "(break)";
+    }
+
+    @Override
+    public String visitContinueStmt(Continue stmt) {
+        return "(continue)";
+    }
+
+    private String parenthesize(String name, Object... parts){
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("(").append(name);
+        append(builder, parts);
+        builder.append(")");
+
+        return builder.toString();
+    }
+
+    private void append(StringBuilder builder, Object... parts){
+        for (Object part : parts) {
+            if (part instanceof List) {
+                append(builder, ((List<?>) part).toArray());
+                continue;
+            }
+
+            builder.append(" ");
+            if (part instanceof Expr) {
+                builder.append(((Expr) part).accept(this));
+            } else if (part instanceof Stmt) {
+                builder.append(((Stmt) part).accept(this));
+            } else {
+                builder.append(part);
+            }
+        }
+    }
+    
+    public static void main(String[] args){
+        Expr expression = new Binary(
+            new Unary(
+                new Token(TokenType.MINUS, "-", null, 1),
+                new Literal(123)), 
+            new Token(TokenType.STAR, "*", null, 1), 
+            new Grouping(
+                new Unary(
+                new Token(TokenType.MINUS, "-", null, 1),
+                new Literal(45.67))
+            ));
+
+        Parser parser = new Parser("123 != 123", new LoxEngine().newContext());
+        // Expr expession_2 = parser.parse();
+        System.out.println(new AstPrinter().print(expression));
     }
 }
@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A sequence of VM instructions with the source line of every byte and the
+// constants the instructions refer to, like clox's Chunk.
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    Object[] constants;
+
+    // Protected ranges [start, end) whose handler runs when a runtime error
+    // escapes them. 'locals' is how many local slots are live at the handler.
+    final List<int[]> handlers = new ArrayList<>();
+
+    void write(int value, int line){
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) value;
+        lines[count] = line;
+        count++;
+    }
+
+    // Numbers, strings and names are shared between uses; anything else
+    // (tokens, functions) gets its own entry.
+    int addConstant(Object value){
+        boolean shared = value instanceof Double || value instanceof String || value instanceof Symbol;
+        if (shared) {
+            Integer index = constantIndex.get(value);
+            if (index != null) return index;
+        }
+        constantList.add(value);
+        int index = constantList.size() - 1;
+        if (shared) constantIndex.put(value, index);
+        return index;
+    }
+
+    void addHandler(int start, int end, int target, int locals){
+        if (start < end) handlers.add(new int[]{start, end, target, locals});
+    }
+
+    // The innermost handler covering the instruction at 'offset', or null.
+    int[] handlerFor(int offset){
+        int[] found = null;
+        for (int[] handler : handlers) {
+            if (handler[0] <= offset && offset < handler[1]) {
+                if (found == null || handler[0] > found[0]) found = handler;
+            }
+        }
+        return found;
+    }
+
+    void finish(){
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+        constantIndex.clear();
+    }
+}
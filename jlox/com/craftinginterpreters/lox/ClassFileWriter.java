@@ -0,0 +1,385 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of the JVM class file format for the classes JvmCompiler
+// emits: static fields, static methods, branches and exception handlers.
+// Classes are written as version 49 (Java 5), which is still verified by
+// type inference, so no StackMapTable has to be computed.
+class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int GETSTATIC = 0xb2;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int ATHROW = 0xbf;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+
+    // Thrown when the program does not fit the limits of a class file, such
+    // as 64KB of code per method.
+    static class TooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException(String message){
+            super(message);
+        }
+    }
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String name;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ClassFileWriter(String name){
+        this.name = name;
+    }
+
+    String name(){
+        return name;
+    }
+
+    private int constant(String key, int tag, Writer writer){
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+
+        try {
+            pool.writeByte(tag);
+            writer.write(pool);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        index = poolCount++;
+        if (index > 0xffff) throw new TooLargeException("Too many constants in one class.");
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    int utf8(String value){
+        return constant("U" + value, 1, out -> out.writeUTF(value));
+    }
+
+    int integer(int value){
+        return constant("I" + value, 3, out -> out.writeInt(value));
+    }
+
+    int classRef(String internalName){
+        int utf8 = utf8(internalName);
+        return constant("C" + internalName, 7, out -> out.writeShort(utf8));
+    }
+
+    int string(String value){
+        int utf8 = utf8(value);
+        return constant("S" + value, 8, out -> out.writeShort(utf8));
+    }
+
+    int nameAndType(String memberName, String descriptor){
+        int nameIndex = utf8(memberName);
+        int descriptorIndex = utf8(descriptor);
+        return constant("N" + memberName + ":" + descriptor, 12, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+    }
+
+    int fieldRef(String owner, String memberName, String descriptor){
+        int ownerIndex = classRef(owner);
+        int type = nameAndType(memberName, descriptor);
+        return constant("F" + owner + "." + memberName + ":" + descriptor, 9, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(type);
+        });
+    }
+
+    int methodRef(String owner, String memberName, String descriptor){
+        int ownerIndex = classRef(owner);
+        int type = nameAndType(memberName, descriptor);
+        return constant("M" + owner + "." + memberName + ":" + descriptor, 10, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(type);
+        });
+    }
+
+    void field(int access, String fieldName, String descriptor){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(fieldName));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    void method(int access, String methodName, String descriptor, Code code){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(methodName));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+
+            byte[] body = code.toByteArray();
+            out.writeShort(utf8("Code"));
+            out.writeInt(2 + 2 + 4 + body.length + 2 + code.handlers.size() * 8 + 2);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(code.handlers.size());
+            for (int[] handler : code.handlers) {
+                out.writeShort(handler[0]);
+                out.writeShort(handler[1]);
+                out.writeShort(handler[2]);
+                out.writeShort(handler[3]);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    byte[] toByteArray(){
+        int thisClass = classRef(name);
+        int superClass = classRef("java/lang/Object");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.flush();
+            out.write(poolBytes.toByteArray());
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fields.size());
+            for (byte[] field : fields) out.write(field);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) out.write(method);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static class Label {
+        private int position = -1;
+        private final List<Integer> fixups = new ArrayList<>();
+    }
+
+    // Bytecode for one method body. Callers describe the stack effect of
+    // each instruction so max_stack can be tracked as code is emitted.
+    class Code {
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private final List<int[]> handlers = new ArrayList<>();
+
+        Code(int parameters){
+            this.maxLocals = parameters;
+        }
+
+        int newLocal(){
+            return maxLocals++;
+        }
+
+        int position(){
+            return length;
+        }
+
+        private void u1(int value){
+            if (length == code.length) {
+                code = java.util.Arrays.copyOf(code, code.length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value){
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void adjust(int delta){
+            stack += delta;
+            if (stack > maxStack) maxStack = stack;
+        }
+
+        void op(int opcode, int delta){
+            u1(opcode);
+            adjust(delta);
+        }
+
+        void iconst(int value){
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH, 1);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH, 1);
+                u2(value);
+            } else {
+                ldc(integer(value));
+            }
+        }
+
+        void ldc(int index){
+            if (index <= 0xff) {
+                op(LDC, 1);
+                u1(index);
+            } else {
+                op(LDC_W, 1);
+                u2(index);
+            }
+        }
+
+        void aload(int local){
+            local(ALOAD, local, 1);
+        }
+
+        void astore(int local){
+            local(ASTORE, local, -1);
+        }
+
+        private void local(int opcode, int local, int delta){
+            if (local > 0xff) {
+                u1(WIDE);
+                op(opcode, delta);
+                u2(local);
+            } else {
+                op(opcode, delta);
+                u1(local);
+            }
+        }
+
+        void getstatic(String owner, String fieldName, String descriptor){
+            op(GETSTATIC, 1);
+            u2(fieldRef(owner, fieldName, descriptor));
+        }
+
+        void typed(int opcode, String internalName, int delta){
+            op(opcode, delta);
+            u2(classRef(internalName));
+        }
+
+        void invokestatic(String owner, String methodName, String descriptor){
+            op(INVOKESTATIC, stackEffect(descriptor));
+            u2(methodRef(owner, methodName, descriptor));
+        }
+
+        void jump(int opcode, Label label){
+            int pc = length;
+            op(opcode, opcode == GOTO ? 0 : -1);
+            if (label.position >= 0) {
+                branchOffset(label.position - pc);
+            } else {
+                label.fixups.add(pc);
+                u2(0);
+            }
+        }
+
+        void mark(Label label){
+            label.position = length;
+            for (int pc : label.fixups) {
+                int offset = length - pc;
+                if (offset > Short.MAX_VALUE) {
+                    throw new TooLargeException("Jump too far in generated method.");
+                }
+                code[pc + 1] = (byte) (offset >> 8);
+                code[pc + 2] = (byte) offset;
+            }
+            label.fixups.clear();
+        }
+
+        private void branchOffset(int offset){
+            if (offset < Short.MIN_VALUE) {
+                throw new TooLargeException("Jump too far in generated method.");
+            }
+            u2(offset);
+        }
+
+        // Control never falls through unconditional jumps, returns and
+        // throws, so the tracked depth is reset to what the next reachable
+        // instruction expects.
+        void setStack(int depth){
+            stack = depth;
+        }
+
+        int stack(){
+            return stack;
+        }
+
+        void handler(int start, int end, int handler){
+            if (start < end) handlers.add(new int[]{start, end, handler, 0});
+        }
+
+        byte[] toByteArray(){
+            if (length > 0xffff) {
+                throw new TooLargeException("Generated method is larger than 64KB.");
+            }
+            return java.util.Arrays.copyOf(code, length);
+        }
+    }
+
+    // Number of stack slots a static call pops minus what it pushes. Only
+    // single-slot argument types are used by the generated code.
+    private static int stackEffect(String descriptor){
+        int delta = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            while (c == '[') c = descriptor.charAt(++i);
+            if (c == 'L') i = descriptor.indexOf(';', i);
+            delta--;
+            i++;
+        }
+        char result = descriptor.charAt(i + 1);
+        if (result != 'V') delta++;
+        return delta;
+    }
+}
@@ -0,0 +1,818 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.OR;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+import com.craftinginterpreters.lox.Stmt.Block;
+import com.craftinginterpreters.lox.Stmt.Break;
+import com.craftinginterpreters.lox.Stmt.Class;
+import com.craftinginterpreters.lox.Stmt.Continue;
+import com.craftinginterpreters.lox.Stmt.Expression;
+import com.craftinginterpreters.lox.Stmt.For;
+import com.craftinginterpreters.lox.Stmt.Function;
+import com.craftinginterpreters.lox.Stmt.If;
+import com.craftinginterpreters.lox.Stmt.Print;
+import com.craftinginterpreters.lox.Stmt.Return;
+import com.craftinginterpreters.lox.Stmt.Var;
+import com.craftinginterpreters.lox.Stmt.While;
+
+// Alternative to the Interpreter: the resolved tree is walked once and turned
+// into a tree of small closures ("node executors") with operators, slots and
+// constants already bound, so running the program never goes back through
+// the visitors.
+public class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>, Stmt.Visitor<ClosureCompiler.StmtNode> {
+
+    interface ExprNode {
+        Object eval(Environment environment);
+
+        // For parents that need a number or a condition. Nodes that can
+        // produce one without boxing override these.
+        default double evalDouble(Environment environment) {
+            return Interpreter.asDouble(eval(environment));
+        }
+
+        default boolean evalCondition(Environment environment) {
+            return Interpreter.isTruthy(eval(environment));
+        }
+    }
+
+    // Arithmetic and comparison nodes evaluate their operands unboxed and
+    // rewrite themselves to the generic boxed path (by setting 'generic')
+    // the first time an operand is not a number, like the Interpreter does.
+    private static abstract class NumericNode implements ExprNode {
+        final Token operator;
+        final ExprNode left;
+        final ExprNode right;
+        boolean generic = false;
+
+        NumericNode(Token operator, ExprNode left, ExprNode right){
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        Object generic(Environment environment){
+            return Interpreter.binary(operator, left.eval(environment), right.eval(environment));
+        }
+
+        // The value of the operation when an operand was not a number.
+        Object unexpectedLeft(Environment environment, Object value){
+            generic = true;
+            return Interpreter.binary(operator, value, right.eval(environment));
+        }
+
+        Object unexpectedRight(double value, Object unexpected){
+            generic = true;
+            return Interpreter.binary(operator, value, unexpected);
+        }
+    }
+
+    private static class ArithmeticNode extends NumericNode {
+        ArithmeticNode(Token operator, ExprNode left, ExprNode right){
+            super(operator, left, right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            if (generic) return generic(environment);
+            try {
+                return evalDouble(environment);
+            } catch (Interpreter.UnexpectedValue e) {
+                return e.value;
+            }
+        }
+
+        @Override
+        public double evalDouble(Environment environment) {
+            if (generic) return Interpreter.asDouble(generic(environment));
+
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (Interpreter.UnexpectedValue e) {
+                return Interpreter.asDouble(unexpectedLeft(environment, e.value));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (Interpreter.UnexpectedValue e) {
+                return Interpreter.asDouble(unexpectedRight(a, e.value));
+            }
+
+            switch (operator.type) {
+                case PLUS:
+                    return a + b;
+                case MINUS:
+                    return a - b;
+                case STAR:
+                    return a * b;
+                default:
+                    if (b == 0) throw new RuntimeError(operator, "Division by zero.");
+                    return a / b;
+            }
+        }
+    }
+
+    private static class ComparisonNode extends NumericNode {
+        ComparisonNode(Token operator, ExprNode left, ExprNode right){
+            super(operator, left, right);
+        }
+
+        @Override
+        public Object eval(Environment environment) {
+            if (generic) return generic(environment);
+            return evalCondition(environment);
+        }
+
+        @Override
+        public boolean evalCondition(Environment environment) {
+            if (generic) return Interpreter.isTruthy(generic(environment));
+
+            double a;
+            try {
+                a = left.evalDouble(environment);
+            } catch (Interpreter.UnexpectedValue e) {
+                return Interpreter.isTruthy(unexpectedLeft(environment, e.value));
+            }
+            double b;
+            try {
+                b = right.evalDouble(environment);
+            } catch (Interpreter.UnexpectedValue e) {
+                return Interpreter.isTruthy(unexpectedRight(a, e.value));
+            }
+
+            switch (operator.type) {
+                case GREATER:
+                    return a > b;
+                case GREATER_EQUAL:
+                    return a >= b;
+                case LESS:
+                    return a < b;
+                default:
+                    return a <= b;
+            }
+        }
+    }
+
+    // Returns null when the statement completes normally, otherwise one of
+    // the completion signals below.
+    interface StmtNode {
+        Object exec(Environment environment);
+    }
+
+    private static final Object BREAK = new Object();
+    private static final Object CONTINUE = new Object();
+
+    private static class Returned {
+        final Object value;
+
+        Returned(Object value){
+            this.value = value;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+
+    ClosureCompiler(Interpreter interpreter){
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    // Compiles a script once into something that runs it as often as
+    // needed against this compiler's globals.
+    Runnable load(List<Stmt> statements){
+        StmtNode program = sequence(statements);
+        return () -> {
+            try {
+                program.exec(globals);
+            } catch (RuntimeError error) {
+                interpreter.context.runtimeError(error);
+            }
+        };
+    }
+
+    private ExprNode compile(Expr expr){
+        return expr.accept(this);
+    }
+
+    private StmtNode compile(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    // Runs the statements in the environment it is given, without opening a
+    // new scope. Used for blocks and function bodies.
+    private StmtNode sequence(List<Stmt> statements){
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+
+        if (nodes.length == 1) return nodes[0];
+
+        return environment -> {
+            for (StmtNode node : nodes) {
+                Object signal = node.exec(environment);
+                if (signal != null) return signal;
+            }
+            return null;
+        };
+    }
+
+    private StmtNode define(int slot, Token name, ExprNode value){
+        if (slot == -1) {
+            Symbol key = name.symbol;
+            return environment -> {
+                globals.define(key, value.eval(environment));
+                return null;
+            };
+        }
+        return environment -> {
+            environment.define(slot, value.eval(environment));
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Class stmt) {
+        ExprNode superclassNode = stmt.superclass == null ? null : compile(stmt.superclass);
+        Token superclassName = stmt.superclass == null ? null : stmt.superclass.name;
+
+        List<Stmt.Function> declarations = stmt.methods;
+        List<StmtNode> bodies = new ArrayList<>();
+        for (Stmt.Function method : declarations) {
+            bodies.add(sequence(method.body));
+        }
+
+        Token className = stmt.name;
+        int slot = stmt.slot;
+
+        return environment -> {
+            Object superclass = null;
+            if (superclassNode != null) {
+                superclass = superclassNode.eval(environment);
+                if (!(superclass instanceof LoxClass)) {
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+                }
+            }
+
+            Environment closure = environment;
+            if (superclassNode != null) {
+                closure = new Environment(environment, 1);
+                closure.define(0, superclass);
+            }
+
+            Map<Symbol, LoxFunction> methods = new HashMap<>();
+            for (int i = 0; i < declarations.size(); i++) {
+                Stmt.Function method = declarations.get(i);
+                boolean isInitializer = method.name.symbol == Symbol.INIT;
+                methods.put(method.name.symbol, new CompiledFunction(method, closure, isInitializer, bodies.get(i)));
+            }
+
+            LoxClass klass = new LoxClass(className.lexeme(), (LoxClass)superclass, methods);
+            if (slot == -1) {
+                globals.define(className.symbol, klass);
+            } else {
+                environment.define(slot, klass);
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Function stmt) {
+        StmtNode body = sequence(stmt.body);
+        int slot = stmt.slot;
+        Symbol name = stmt.name.symbol;
+
+        if (slot == -1) {
+            return environment -> {
+                globals.define(name, new CompiledFunction(stmt, environment, false, body));
+                return null;
+            };
+        }
+        return environment -> {
+            environment.define(slot, new CompiledFunction(stmt, environment, false, body));
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Return stmt) {
+        if (stmt.value == null) {
+            Returned nothing = new Returned(null);
+            return environment -> nothing;
+        }
+        ExprNode value = compile(stmt.value);
+        return environment -> new Returned(value.eval(environment));
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Block stmt) {
+        StmtNode body = sequence(stmt.statements);
+        int frameSize = stmt.frameSize;
+        return environment -> body.exec(new Environment(environment, frameSize));
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Expression stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return environment -> {
+            expression.eval(environment);
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitIfStmt(If stmt) {
+        ExprNode condition = compile(stmt.Condition);
+        StmtNode thenBranch = compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            return environment -> {
+                if (condition.evalCondition(environment)) {
+                    return thenBranch.exec(environment);
+                }
+                return null;
+            };
+        }
+
+        StmtNode elseBranch = compile(stmt.elseBranch);
+        return environment -> {
+            if (condition.evalCondition(environment)) {
+                return thenBranch.exec(environment);
+            }
+            return elseBranch.exec(environment);
+        };
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Print stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return environment -> {
+            interpreter.context.out.println(Interpreter.stringify(expression.eval(environment)));
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Var stmt) {
+        if (stmt.initializer == null) {
+            return define(stmt.slot, stmt.name, environment -> null);
+        }
+        return define(stmt.slot, stmt.name, compile(stmt.initializer));
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(While stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode body = compile(stmt.body);
+        return environment -> {
+            while (condition.evalCondition(environment)) {
+                Object signal = body.exec(environment);
+                if (signal == BREAK) break;
+                if (signal != null && signal != CONTINUE) return signal;
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitForStmt(For stmt) {
+        StmtNode initializer = compile(stmt.initializer);
+        ExprNode condition = compile(stmt.condition);
+        ExprNode increment = compile(stmt.increment);
+        StmtNode body = compile(stmt.body);
+        return environment -> {
+            initializer.exec(environment);
+            while (condition.evalCondition(environment)) {
+                Object signal;
+                // Like the Interpreter, the increment also runs when the body
+                // breaks, returns or fails.
+                try {
+                    signal = body.exec(environment);
+                } finally {
+                    increment.eval(environment);
+                }
+                if (signal == BREAK) break;
+                if (signal != null && signal != CONTINUE) return signal;
+            }
+            return null;
+        };
+    }
+
+    @Override
+    public StmtNode visitBreakStmt(Break stmt) {
+        return environment -> BREAK;
+    }
+
+    @Override
+    public StmtNode visitContinueStmt(Continue stmt) {
+        return environment -> CONTINUE;
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Assign expr) {
+        ExprNode value = compile(expr.value);
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+
+        if (depth == -1) {
+            return environment -> {
+                Object result = value.eval(environment);
+                globals.assign(name, result);
+                return result;
+            };
+        }
+        return environment -> {
+            Object result = value.eval(environment);
+            environment.assignAt(depth, slot, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+
+        if (expr.operator.type == OR) {
+            return environment -> {
+                Object value = left.eval(environment);
+                if (Interpreter.isTruthy(value)) return value;
+                return right.eval(environment);
+            };
+        }
+        return environment -> {
+            Object value = left.eval(environment);
+            if (!Interpreter.isTruthy(value)) return value;
+            return right.eval(environment);
+        };
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Set expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode value = compile(expr.value);
+        Token name = expr.name;
+        PropertyCache cache = interpreter.context.newCache();
+        return environment -> {
+            Object instance = object.eval(environment);
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.eval(environment);
+            cache.set((LoxInstance) instance, name, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitSuperExpr(Super expr) {
+        int distance = expr.depth;
+        Token method = expr.method;
+        return environment -> {
+            LoxClass superclass = (LoxClass)environment.getAt(distance, 0);
+            LoxInstance object = (LoxInstance)environment.getAt(distance - 1, 0);
+
+            LoxFunction function = superclass.findMethod(method.symbol);
+            if (function == null) {
+                throw new RuntimeError(method, "Undefined property '"+ method.lexeme() +"'.");
+            }
+            return function.bind(object);
+        };
+    }
+
+    @Override
+    public ExprNode visitThisExpr(This expr) {
+        return variable(expr.keyword, expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case BANG_EQUAL:
+                return environment -> !Interpreter.isEqual(left.eval(environment), right.eval(environment));
+            case EQUAL_EQUAL:
+                return environment -> Interpreter.isEqual(left.eval(environment), right.eval(environment));
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return new ComparisonNode(operator, left, right);
+            case PLUS:
+            case MINUS:
+            case SLASH:
+            case STAR:
+                return new ArithmeticNode(operator, left, right);
+        }
+
+        return environment -> {
+            left.eval(environment);
+            right.eval(environment);
+            return null;
+        };
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Call expr) {
+        ExprNode[] arguments = new ExprNode[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        Token paren = expr.paren;
+
+        if (expr.callee instanceof Get) return invoke((Get) expr.callee, arguments, paren);
+        if (expr.callee instanceof Super) return invokeSuper((Super) expr.callee, arguments, paren);
+
+        ExprNode callee = compile(expr.callee);
+        return environment -> call(paren, callee.eval(environment), arguments, environment);
+    }
+
+    // Method calls pass the object as the receiver instead of binding the
+    // method first, like Interpreter.invoke.
+    private ExprNode invoke(Get get, ExprNode[] arguments, Token paren){
+        ExprNode object = compile(get.object);
+        Token name = get.name;
+        PropertyCache cache = interpreter.context.newCache();
+        return environment -> {
+            Object value = object.eval(environment);
+            if (!(value instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+            LoxInstance instance = (LoxInstance) value;
+
+            LoxFunction method = cache.method(instance, name);
+            if (method == null) {
+                return call(paren, cache.get(instance, name), arguments, environment);
+            }
+            return callMethod(paren, method, instance, arguments, environment);
+        };
+    }
+
+    private ExprNode invokeSuper(Super callee, ExprNode[] arguments, Token paren){
+        int distance = callee.depth;
+        Token name = callee.method;
+        return environment -> {
+            LoxClass superclass = (LoxClass)environment.getAt(distance, 0);
+            LoxInstance object = (LoxInstance)environment.getAt(distance - 1, 0);
+
+            LoxFunction method = superclass.findMethod(name.symbol);
+            if (method == null) {
+                throw new RuntimeError(name, "Undefined property '"+ name.lexeme() +"'.");
+            }
+            return callMethod(paren, method, object, arguments, environment);
+        };
+    }
+
+    // Same shape as Interpreter.call: up to three arguments stay in locals
+    // and use the fixed-arity entry points.
+    private Object call(Token paren, Object function, ExprNode[] arguments, Environment environment){
+        switch (arguments.length) {
+            case 0:
+                return callable(paren, function, 0).call0(interpreter);
+            case 1: {
+                Object a = arguments[0].eval(environment);
+                return callable(paren, function, 1).call1(interpreter, a);
+            }
+            case 2: {
+                Object a = arguments[0].eval(environment);
+                Object b = arguments[1].eval(environment);
+                return callable(paren, function, 2).call2(interpreter, a, b);
+            }
+            case 3: {
+                Object a = arguments[0].eval(environment);
+                Object b = arguments[1].eval(environment);
+                Object c = arguments[2].eval(environment);
+                return callable(paren, function, 3).call3(interpreter, a, b, c);
+            }
+            default: {
+                Object[] values = evaluate(arguments, environment);
+                return callable(paren, function, values.length).call(interpreter, values);
+            }
+        }
+    }
+
+    private Object callMethod(Token paren, LoxFunction method, LoxInstance receiver, ExprNode[] arguments, Environment environment){
+        switch (arguments.length) {
+            case 0:
+                checkArity(paren, method, 0);
+                return method.callMethod(interpreter, receiver);
+            case 1: {
+                Object a = arguments[0].eval(environment);
+                checkArity(paren, method, 1);
+                return method.callMethod(interpreter, receiver, a);
+            }
+            case 2: {
+                Object a = arguments[0].eval(environment);
+                Object b = arguments[1].eval(environment);
+                checkArity(paren, method, 2);
+                return method.callMethod(interpreter, receiver, a, b);
+            }
+            case 3: {
+                Object a = arguments[0].eval(environment);
+                Object b = arguments[1].eval(environment);
+                Object c = arguments[2].eval(environment);
+                checkArity(paren, method, 3);
+                return method.callMethod(interpreter, receiver, a, b, c);
+            }
+            default: {
+                Object[] values = evaluate(arguments, environment);
+                checkArity(paren, method, values.length);
+                return method.callMethod(interpreter, receiver, values);
+            }
+        }
+    }
+
+    private static Object[] evaluate(ExprNode[] arguments, Environment environment){
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            values[i] = arguments[i].eval(environment);
+        }
+        return values;
+    }
+
+    private static LoxCallable callable(Token paren, Object function, int count){
+        if (!(function instanceof LoxCallable)) {
+            throw new RuntimeError(paren,"Can only call functions and classes.");
+        }
+        LoxCallable callable = (LoxCallable) function;
+        checkArity(paren, callable, count);
+        return callable;
+    }
+
+    private static void checkArity(Token paren, LoxCallable callable, int count){
+        if (count != callable.arity()) {
+            throw new RuntimeError(paren, "Expected " + callable.arity() + " arguments but got " + count + ".");
+        }
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Get expr) {
+        ExprNode object = compile(expr.object);
+        Token name = expr.name;
+        PropertyCache cache = interpreter.context.newCache();
+        return environment -> {
+            Object instance = object.eval(environment);
+            if (instance instanceof LoxInstance) {
+                return cache.get((LoxInstance) instance, name);
+            }
+            throw new RuntimeError(name, "Only instances have properties.");
+        };
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Literal expr) {
+        Object value = expr.value;
+        if (value instanceof Double) {
+            double number = (double) value;
+            return new ExprNode() {
+                @Override
+                public Object eval(Environment environment) {
+                    return value;
+                }
+
+                @Override
+                public double evalDouble(Environment environment) {
+                    return number;
+                }
+            };
+        }
+        return environment -> value;
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Unary expr) {
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        switch (operator.type) {
+            case BANG:
+                return environment -> !Interpreter.isTruthy(right.eval(environment));
+            case MINUS:
+                return new ExprNode() {
+                    @Override
+                    public Object eval(Environment environment) {
+                        return evalDouble(environment);
+                    }
+
+                    @Override
+                    public double evalDouble(Environment environment) {
+                        try {
+                            return -right.evalDouble(environment);
+                        } catch (Interpreter.UnexpectedValue e) {
+                            throw new RuntimeError(operator, "Operand must be a number.");
+                        }
+                    }
+                };
+        }
+        return environment -> {
+            right.eval(environment);
+            return null;
+        };
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Variable expr) {
+        return variable(expr.name, expr.depth, expr.slot);
+    }
+
+    // Filled the first time it runs, like Interpreter.visitTempExpr.
+    @Override
+    public ExprNode visitTempExpr(Temp expr) {
+        ExprNode expression = compile(expr.expression);
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+        if (depth == -1) {
+            return environment -> {
+                Object value = globals.get(name);
+                if (value == null) {
+                    value = expression.eval(environment);
+                    globals.assign(name, value);
+                }
+                return value;
+            };
+        }
+        return environment -> {
+            Object value = environment.getAt(depth, slot);
+            if (value == null) {
+                value = expression.eval(environment);
+                environment.assignAt(depth, slot, value);
+            }
+            return value;
+        };
+    }
+
+    private ExprNode variable(Token name, int depth, int slot){
+        if (depth == -1) {
+            return environment -> initialized(name, globals.get(name));
+        }
+        return environment -> initialized(name, environment.getAt(depth, slot));
+    }
+
+    private static Object initialized(Token name, Object value){
+        if (value == null) {
+            throw new RuntimeError(name, "Variable not been initialized.");
+        }
+        return value;
+    }
+
+    // A LoxFunction whose body has already been compiled to node executors.
+    private static class CompiledFunction extends LoxFunction {
+        private final StmtNode body;
+
+        CompiledFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, StmtNode body){
+            this(declaration, closure, isInitializer, body, null);
+        }
+
+        CompiledFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, StmtNode body, LoxInstance receiver){
+            super(declaration, closure, isInitializer, receiver);
+            this.body = body;
+        }
+
+        @Override
+        Object run(Interpreter interpreter, Environment environment) {
+            Object signal = body.exec(environment);
+            if (isInitializer) {
+                return environment.getAt(0, 0);
+            }
+            if (signal instanceof Returned) {
+                return ((Returned) signal).value;
+            }
+            return null;
+        }
+
+        @Override
+        public LoxFunction bind(LoxInstance instance){
+            return new CompiledFunction(declaration, closure, isInitializer, body, instance);
+        }
+    }
+}
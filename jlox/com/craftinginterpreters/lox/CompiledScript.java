@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox;
+
+// A script scanned, parsed and resolved once, by LoxContext.compile(), and
+// then run as many times as needed with LoxContext.run(). It holds the tree
+// in AstCache's encoding, never the tree itself: a tree fills in inline
+// caches and type feedback as it runs, so each context decodes a copy of
+// its own the first time it runs the script. Nothing here changes after
+// compile(), so contexts on different threads can run one script at once.
+public final class CompiledScript {
+    final byte[] tree;
+
+    CompiledScript(byte[] tree){
+        this.tree = tree;
+    }
+}
@@ -1,21 +1,27 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Environment {
-    private final Map<String, Object> values = new HashMap<>();
+    // Globals are late bound and looked up by name, every other scope is an
+    // array indexed by the slot the Resolver assigned to each declaration.
+    private final Map<Symbol, Object> values = new HashMap<>();
+    private Object[] slots;
     final Environment enclosing;
 
     Environment(){
         this.enclosing = null;
+        this.slots = new Object[0];
     }
 
-    Environment(Environment enclosing){
+    Environment(Environment enclosing, int size){
         this.enclosing = enclosing;
+        this.slots = new Object[size];
     }
 
-    Environment ancestor(Integer distance){
+    Environment ancestor(int distance){
         Environment environment = this;
         for (int i = 0; i < distance; i++) {
             environment = environment.enclosing;
@@ -23,27 +29,43 @@ public class Environment {
         return environment;    
     }
 
-    void define(String k, Object v){
+    void define(Symbol k, Object v){
         values.put(k, v);
     }
 
+    void clear(){
+        values.clear();
+    }
+
+    void define(int slot, Object v){
+        if (slot >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(slot + 1, slots.length * 2));
+        }
+        slots[slot] = v;
+    }
+
+    // A global's value, or null if it is not defined.
+    Object get(Symbol name){
+        return values.get(name);
+    }
+
     Object get(Token name){
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+        if (values.containsKey(name.symbol)) {
+            return values.get(name.symbol);
         }
 
         if(enclosing != null) return enclosing.get(name);
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'");
     }
 
-    Object getAt(Integer distance, String name){
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot){
+        return ancestor(distance).slots[slot];
     }
 
     void assign(Token name, Object value){
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        if (values.containsKey(name.symbol)) {
+            values.put(name.symbol, value);
             return;
         }
         if(enclosing != null) {
@@ -51,11 +73,11 @@ public class Environment {
             return;
         }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'");
     }
 
-    void assignAt(Integer distance, Token name, Object value){
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value){
+        ancestor(distance).slots[slot] = value;
     }
     
-}
\ No newline at end of file
+}
@@ -16,6 +16,7 @@ abstract class Expr {
         R visitLiteralExpr(Literal expr);
         R visitUnaryExpr(Unary expr);
         R visitVariableExpr(Variable expr);
+        R visitTempExpr(Temp expr);
     }
     static class Assign extends Expr {
         Assign(Token name, Expr value){
@@ -24,6 +25,8 @@ abstract class Expr {
         }
         final Token name;
         final Expr value;
+        int depth = -1;
+        int slot;
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -54,6 +57,7 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        final PropertyCache cache = new PropertyCache();
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -67,6 +71,8 @@ abstract class Expr {
         }
         final Token keyword;
         final Token method;
+        int depth = -1;
+        int slot;
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -78,6 +84,8 @@ abstract class Expr {
             this.keyword = keyword;
         }
         final Token keyword;
+        int depth = -1;
+        int slot;
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -93,6 +101,7 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        boolean generic;
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -108,6 +117,7 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        boolean isTailCall;
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -121,6 +131,7 @@ abstract class Expr {
         }
         final Expr object;
         final Token name;
+        final PropertyCache cache = new PropertyCache();
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -167,12 +178,29 @@ abstract class Expr {
             this.name = name;
         }
         final Token name;
+        int depth = -1;
+        int slot;
 
         @Override
         <R> R accept(Visitor<R> visitor){
            return visitor.visitVariableExpr(this);
         }
     }
+    static class Temp extends Expr {
+        Temp(Token name, Expr expression){
+            this.name = name;
+            this.expression = expression;
+        }
+        final Token name;
+        final Expr expression;
+        int depth = -1;
+        int slot;
+
+        @Override
+        <R> R accept(Visitor<R> visitor){
+           return visitor.visitTempExpr(this);
+        }
+    }
 
     abstract <R> R accept(Visitor<R> visitor);
 }
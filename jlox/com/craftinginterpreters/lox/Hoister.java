@@ -0,0 +1,940 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+import com.craftinginterpreters.lox.Stmt.Block;
+import com.craftinginterpreters.lox.Stmt.Break;
+import com.craftinginterpreters.lox.Stmt.Class;
+import com.craftinginterpreters.lox.Stmt.Continue;
+import com.craftinginterpreters.lox.Stmt.Expression;
+import com.craftinginterpreters.lox.Stmt.For;
+import com.craftinginterpreters.lox.Stmt.Function;
+import com.craftinginterpreters.lox.Stmt.If;
+import com.craftinginterpreters.lox.Stmt.Print;
+import com.craftinginterpreters.lox.Stmt.Return;
+import com.craftinginterpreters.lox.Stmt.Var;
+import com.craftinginterpreters.lox.Stmt.While;
+
+// Replaces pure expressions that would be evaluated again with the same
+// result by temporaries: those invariant in a loop, and those repeated in
+// a statement list with nothing in between that could change them.
+//
+// A temporary is a local (or global) declared right before the loop or
+// statement, read through an Expr.Temp that evaluates its expression the
+// first time and the stored value after that. So the expression still
+// runs, and fails, exactly where it first did, and a loop that never runs
+// evaluates nothing.
+//
+// Pure means operators over literals, variables and 'this'. Their results
+// are never nil, which is how an unfilled temporary is told apart. A
+// variable counts as unchanged where no assignment to that name is seen
+// and, if a call is made, no function anywhere assigns that name. Names
+// are compared without their bindings, which only errs on the safe side.
+//
+// "Anywhere" is only known when the tree is the whole program. Otherwise a
+// function declared by an earlier script in the same context can be called
+// and assign any global, so every global read counts as assigned by calls.
+class Hoister implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private static final String TEMP_PREFIX = "$t";
+
+    private final LoxContext context;
+    private final boolean wholeProgram;
+    private final Map<Expr, Token> temps = new IdentityHashMap<>();
+    private Set<String> assignedInFunctions;
+    private int count = 0;
+
+    Hoister(LoxContext context, boolean wholeProgram){
+        this.context = context;
+        this.wholeProgram = wholeProgram;
+    }
+
+    List<Stmt> hoist(List<Stmt> statements){
+        Scan program = new Scan();
+        program.scan(statements);
+        assignedInFunctions = program.assignedInFunctions;
+        if (!wholeProgram) assignedInFunctions.addAll(program.globals);
+
+        List<Stmt> result = sequence(statements);
+        if (temps.isEmpty()) return statements;
+
+        // Every slot after a new temporary moved, so bind the tree again.
+        new Resolver(context).resolve(result);
+        return result;
+    }
+
+    // What a piece of tree may assign, declare and call.
+    private static class Scan implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        final Set<String> assigned = new HashSet<>();
+        final Set<String> declared = new HashSet<>();
+        final Set<String> assignedInFunctions = new HashSet<>();
+        // Names read as globals.
+        final Set<String> globals = new HashSet<>();
+        boolean calls = false;
+        private int functions = 0;
+
+        void scan(List<Stmt> statements){
+            for (Stmt statement : statements) {
+                scan(statement);
+            }
+        }
+
+        void scan(Stmt stmt){
+            if (stmt != null) stmt.accept(this);
+        }
+
+        void scan(Expr expr){
+            if (expr != null) expr.accept(this);
+        }
+
+        @Override
+        public Void visitClassStmt(Class stmt) {
+            declared.add(stmt.name.lexeme());
+            if (stmt.superclass != null) scan(stmt.superclass);
+            for (Function method : stmt.methods) {
+                scan(method);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Block stmt) {
+            scan(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Expression stmt) {
+            scan(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Function stmt) {
+            declared.add(stmt.name.lexeme());
+            for (Token param : stmt.params) {
+                declared.add(param.lexeme());
+            }
+            functions++;
+            scan(stmt.body);
+            functions--;
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Return stmt) {
+            scan(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Print stmt) {
+            scan(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(If stmt) {
+            scan(stmt.Condition);
+            scan(stmt.thenBranch);
+            scan(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Var stmt) {
+            declared.add(stmt.name.lexeme());
+            scan(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(While stmt) {
+            scan(stmt.condition);
+            scan(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(For stmt) {
+            scan(stmt.initializer);
+            scan(stmt.condition);
+            scan(stmt.increment);
+            scan(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Break stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Continue stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Assign expr) {
+            assigned.add(expr.name.lexeme());
+            if (functions > 0) assignedInFunctions.add(expr.name.lexeme());
+            scan(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Logical expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            scan(expr.object);
+            scan(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Binary expr) {
+            scan(expr.left);
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Call expr) {
+            calls = true;
+            scan(expr.callee);
+            for (Expr argument : expr.arguments) {
+                scan(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Get expr) {
+            scan(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Grouping expr) {
+            scan(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Unary expr) {
+            scan(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Variable expr) {
+            if (expr.depth == -1) globals.add(expr.name.lexeme());
+            return null;
+        }
+
+        @Override
+        public Void visitTempExpr(Temp expr) {
+            scan(expr.expression);
+            return null;
+        }
+    }
+
+    private static boolean isPure(Expr expr){
+        if (expr instanceof Literal || expr instanceof Variable || expr instanceof This) return true;
+        if (expr instanceof Grouping) return isPure(((Grouping) expr).expression);
+        if (expr instanceof Unary) return isPure(((Unary) expr).right);
+        if (expr instanceof Binary) return isPure(((Binary) expr).left) && isPure(((Binary) expr).right);
+        return false;
+    }
+
+    private boolean isCandidate(Expr expr){
+        return (expr instanceof Binary || expr instanceof Unary) && !temps.containsKey(expr) && isPure(expr);
+    }
+
+    private static void reads(Expr expr, Set<String> names){
+        if (expr instanceof Variable) {
+            names.add(((Variable) expr).name.lexeme());
+        } else if (expr instanceof This) {
+            names.add("this");
+        } else if (expr instanceof Grouping) {
+            reads(((Grouping) expr).expression, names);
+        } else if (expr instanceof Unary) {
+            reads(((Unary) expr).right, names);
+        } else if (expr instanceof Binary) {
+            reads(((Binary) expr).left, names);
+            reads(((Binary) expr).right, names);
+        }
+    }
+
+    private static Set<String> reads(Expr expr){
+        Set<String> names = new HashSet<>();
+        reads(expr, names);
+        return names;
+    }
+
+    // Occurrences of one expression that can share a temporary.
+    private static class Group {
+        final List<Expr> occurrences = new ArrayList<>();
+        final Set<String> reads;
+        // Index of the statement the group starts in.
+        int first;
+
+        Group(Set<String> reads){
+            this.reads = reads;
+        }
+    }
+
+    private Token temp(Expr expr){
+        Token operator = expr instanceof Binary ? ((Binary) expr).operator : ((Unary) expr).operator;
+        return new Token(TokenType.IDENTIFIER, TEMP_PREFIX + count++, null, operator.line);
+    }
+
+    // Whether a name is a temporary's. No script can spell one, but those at
+    // the top level are globals all the same.
+    static boolean isTemp(String name){
+        return name.startsWith(TEMP_PREFIX);
+    }
+
+    private static String key(Expr expr){
+        return new AstPrinter().print(expr);
+    }
+
+    // Finds the temporaries of one statement list, then rewrites its
+    // statements with their declarations in front of where they are used.
+    private List<Stmt> sequence(List<Stmt> statements){
+        Map<Integer, List<Stmt>> declarations = new HashMap<>();
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            if (statement instanceof While || statement instanceof For) {
+                for (Group group : invariants(statement)) {
+                    declare(declarations, i, group);
+                }
+            }
+        }
+        repeated(statements, declarations);
+
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = !declarations.isEmpty();
+        for (int i = 0; i < statements.size(); i++) {
+            if (declarations.containsKey(i)) result.addAll(declarations.get(i));
+            Stmt statement = statements.get(i);
+            Stmt rewritten = rewrite(statement);
+            result.add(rewritten);
+            changed |= rewritten != statement;
+        }
+        return changed ? result : statements;
+    }
+
+    private void declare(Map<Integer, List<Stmt>> declarations, int index, Group group){
+        Token name = temp(group.occurrences.get(0));
+        for (Expr occurrence : group.occurrences) {
+            temps.put(occurrence, name);
+        }
+        declarations.computeIfAbsent(index, i -> new ArrayList<>()).add(new Var(name, null));
+    }
+
+    // Loop-invariant expressions of a loop, by expression. The loop's own
+    // initializer runs before the first iteration so it does not count.
+    private List<Group> invariants(Stmt loop){
+        Scan scan = new Scan();
+        if (loop instanceof While) {
+            scan.scan(((While) loop).condition);
+            scan.scan(((While) loop).body);
+        } else {
+            For stmt = (For) loop;
+            scan.scan(stmt.condition);
+            scan.scan(stmt.increment);
+            scan.scan(stmt.body);
+        }
+
+        Map<String, Group> groups = new HashMap<>();
+        List<Group> result = new ArrayList<>();
+        Collector collector = new Collector(expr -> {
+            if (!isCandidate(expr)) return false;
+            Set<String> names = reads(expr);
+            for (String name : names) {
+                if (scan.assigned.contains(name) || scan.declared.contains(name)) return false;
+                if (scan.calls && assignedInFunctions.contains(name)) return false;
+            }
+
+            Group group = groups.get(key(expr));
+            if (group == null) {
+                group = new Group(names);
+                groups.put(key(expr), group);
+                result.add(group);
+            }
+            group.occurrences.add(expr);
+            return true;
+        });
+
+        if (loop instanceof While) {
+            collector.collect(((While) loop).condition);
+            collector.collect(((While) loop).body);
+        } else {
+            For stmt = (For) loop;
+            collector.collect(stmt.condition);
+            collector.collect(stmt.increment);
+            collector.collect(stmt.body);
+        }
+        return result;
+    }
+
+    // Walks the expressions a statement evaluates, outside nested functions
+    // and classes, offering each to a test that takes the ones it wants.
+    // Taken expressions and those already given a temporary are not walked
+    // into.
+    private class Collector implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Predicate<Expr> take;
+
+        Collector(Predicate<Expr> take){
+            this.take = take;
+        }
+
+        void collect(Stmt stmt){
+            if (stmt != null) stmt.accept(this);
+        }
+
+        void collect(Expr expr){
+            if (expr == null || temps.containsKey(expr)) return;
+            if (!take.test(expr)) expr.accept(this);
+        }
+
+        @Override
+        public Void visitClassStmt(Class stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Block stmt) {
+            for (Stmt statement : stmt.statements) {
+                collect(statement);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Expression stmt) {
+            collect(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Function stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Return stmt) {
+            collect(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Print stmt) {
+            collect(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(If stmt) {
+            collect(stmt.Condition);
+            collect(stmt.thenBranch);
+            collect(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Var stmt) {
+            collect(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(While stmt) {
+            collect(stmt.condition);
+            collect(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(For stmt) {
+            collect(stmt.initializer);
+            collect(stmt.condition);
+            collect(stmt.increment);
+            collect(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Break stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Continue stmt) {
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Assign expr) {
+            collect(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Logical expr) {
+            collect(expr.left);
+            collect(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            collect(expr.object);
+            collect(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Binary expr) {
+            collect(expr.left);
+            collect(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Call expr) {
+            collect(expr.callee);
+            for (Expr argument : expr.arguments) {
+                collect(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Get expr) {
+            collect(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Grouping expr) {
+            collect(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Unary expr) {
+            collect(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Variable expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitTempExpr(Temp expr) {
+            return null;
+        }
+    }
+
+    // Common subexpressions of a straight-line run of statements. The
+    // expressions of each statement are walked in evaluation order, and an
+    // assignment, declaration or call ends the groups it could change. Any
+    // statement with control flow of its own ends them all, after its
+    // condition for an if.
+    private void repeated(List<Stmt> statements, Map<Integer, List<Stmt>> declarations){
+        Repeats repeats = new Repeats();
+        for (int i = 0; i < statements.size(); i++) {
+            repeats.index = i;
+            Stmt statement = statements.get(i);
+            if (statement instanceof Expression) {
+                repeats.walk(((Expression) statement).expression);
+            } else if (statement instanceof Print) {
+                repeats.walk(((Print) statement).expression);
+            } else if (statement instanceof Return) {
+                repeats.walk(((Return) statement).value);
+            } else if (statement instanceof Var) {
+                repeats.walk(((Var) statement).initializer);
+                repeats.end(((Var) statement).name.lexeme());
+            } else {
+                if (statement instanceof If) repeats.walk(((If) statement).Condition);
+                repeats.live.clear();
+            }
+        }
+
+        for (Group group : repeats.groups) {
+            declare(declarations, group.first, group);
+        }
+    }
+
+    private class Repeats implements Expr.Visitor<Void> {
+        final Map<String, Group> live = new HashMap<>();
+        // The groups that were repeated, in order.
+        final List<Group> groups = new ArrayList<>();
+        int index;
+
+        void walk(Expr expr){
+            if (expr == null || temps.containsKey(expr)) return;
+            if (!isCandidate(expr)) {
+                expr.accept(this);
+                return;
+            }
+
+            String key = key(expr);
+            Group group = live.get(key);
+            if (group == null) {
+                group = new Group(reads(expr));
+                group.first = index;
+                live.put(key, group);
+            }
+            group.occurrences.add(expr);
+            if (group.occurrences.size() == 2) groups.add(group);
+        }
+
+        void end(String name){
+            live.values().removeIf(group -> group.reads.contains(name));
+        }
+
+        @Override
+        public Void visitAssignExpr(Assign expr) {
+            walk(expr.value);
+            end(expr.name.lexeme());
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Logical expr) {
+            walk(expr.left);
+            walk(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            walk(expr.object);
+            walk(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Binary expr) {
+            walk(expr.left);
+            walk(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Call expr) {
+            walk(expr.callee);
+            for (Expr argument : expr.arguments) {
+                walk(argument);
+            }
+            live.values().removeIf(group -> !Collections.disjoint(group.reads, assignedInFunctions));
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Get expr) {
+            walk(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Grouping expr) {
+            walk(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Unary expr) {
+            walk(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Variable expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitTempExpr(Temp expr) {
+            return null;
+        }
+    }
+
+    private Stmt rewrite(Stmt stmt){
+        return stmt == null ? null : stmt.accept(this);
+    }
+
+    private Expr rewrite(Expr expr){
+        if (expr == null) return null;
+        Token temp = temps.get(expr);
+        if (temp != null) return new Temp(temp, expr);
+        return expr.accept(this);
+    }
+
+    private List<Expr> rewrite(List<Expr> exprs){
+        List<Expr> result = new ArrayList<>(exprs.size());
+        boolean changed = false;
+        for (Expr expr : exprs) {
+            Expr rewritten = rewrite(expr);
+            result.add(rewritten);
+            changed |= rewritten != expr;
+        }
+        return changed ? result : exprs;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Class stmt) {
+        List<Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for (Function method : stmt.methods) {
+            Function rewritten = (Function) rewrite(method);
+            methods.add(rewritten);
+            changed |= rewritten != method;
+        }
+        if (!changed) return stmt;
+        return new Class(stmt.name, stmt.superclass, methods);
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        List<Stmt> statements = sequence(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+        return new Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Expression stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        List<Stmt> body = sequence(stmt.body);
+        if (body == stmt.body) return stmt;
+        return new Function(stmt.name, stmt.params, body);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Return stmt) {
+        Expr value = rewrite(stmt.value);
+        if (value == stmt.value) return stmt;
+        return new Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Print stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Print(expression);
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        Expr condition = rewrite(stmt.Condition);
+        Stmt thenBranch = rewrite(stmt.thenBranch);
+        Stmt elseBranch = rewrite(stmt.elseBranch);
+        if (condition == stmt.Condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        return new Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = rewrite(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new While(condition, body);
+    }
+
+    @Override
+    public Stmt visitForStmt(For stmt) {
+        Stmt initializer = rewrite(stmt.initializer);
+        Expr condition = rewrite(stmt.condition);
+        Expr increment = rewrite(stmt.increment);
+        Stmt body = rewrite(stmt.body);
+        if (initializer == stmt.initializer && condition == stmt.condition
+                && increment == stmt.increment && body == stmt.body) {
+            return stmt;
+        }
+        return new For(initializer, condition, increment, body);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) return expr;
+        return new Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = rewrite(expr.object);
+        Expr value = rewrite(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = rewrite(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+        return new Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Get expr) {
+        Expr object = rewrite(expr.object);
+        if (object == expr.object) return expr;
+        return new Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        Expr expression = rewrite(expr.expression);
+        if (expression == expr.expression) return expr;
+        return new Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        Expr right = rewrite(expr.right);
+        if (right == expr.right) return expr;
+        return new Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitTempExpr(Temp expr) {
+        return expr;
+    }
+}
@@ -2,7 +2,6 @@ package com.craftinginterpreters.lox;
 
 import static com.craftinginterpreters.lox.TokenType.OR;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +15,7 @@ import com.craftinginterpreters.lox.Expr.Literal;
 import com.craftinginterpreters.lox.Expr.Logical;
 import com.craftinginterpreters.lox.Expr.Set;
 import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
 import com.craftinginterpreters.lox.Expr.This;
 import com.craftinginterpreters.lox.Expr.Unary;
 import com.craftinginterpreters.lox.Expr.Variable;
@@ -33,15 +33,61 @@ import com.craftinginterpreters.lox.Stmt.Var;
 import com.craftinginterpreters.lox.Stmt.While;
 
 
-public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
+public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Interpreter.Completion> {
+    // Where output and runtime errors go, for every engine.
+    final LoxContext context;
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-    private static class BreakException extends RuntimeException{}
-    private static class ContinueException extends RuntimeException{}
 
-    Interpreter(){
-        globals.define("clock", new LoxCallable() {
+    // How a statement finished. Anything but NORMAL makes the enclosing
+    // statements stop and pass it up until a loop or function consumes it;
+    // the value of a RETURN waits in returnValue.
+    enum Completion {
+        NORMAL,
+        BREAK,
+        CONTINUE,
+        RETURN
+    }
+
+    private Object returnValue;
+
+    // A return whose value is a call in tail position leaves TAIL_CALL as
+    // its value and the callee with its filled-in frame here, and the
+    // returning function runs that instead of nesting another Java call.
+    static final Object TAIL_CALL = new Object();
+    LoxFunction tailFunction;
+    Environment tailFrame;
+
+    // Thrown by evaluateDouble when the expression did not produce a number.
+    // It carries the value so the caller can carry on generically, and has
+    // no stack trace since it is part of normal evaluation.
+    static class UnexpectedValue extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Object value;
+
+        UnexpectedValue(Object value){
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    Interpreter(LoxContext context){
+        this.context = context;
+        defineNatives();
+    }
+
+    // Drops every global a script defined, leaving only the natives. The
+    // compiled engines hold on to this same Environment, so it is emptied
+    // rather than replaced.
+    void resetGlobals(){
+        globals.clear();
+        environment = globals;
+        defineNatives();
+    }
+
+    private void defineNatives(){
+        globals.define(Symbol.intern("clock"), new LoxCallable() {
 
             @Override
             public int arity() {
@@ -50,6 +96,11 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
                 return (double)System.currentTimeMillis()/1000.0;
             }
 
@@ -65,12 +116,12 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
                 execute(stmt);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            context.runtimeError(error);
         }
     }
 
     @Override
-    public Void visitClassStmt(Class stmt) {
+    public Completion visitClassStmt(Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -79,119 +130,127 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
             }
             
         }
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.slot, stmt.name, null);
 
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define(0, superclass);
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+            LoxFunction function = new LoxFunction(method, environment, method.name.symbol == Symbol.INIT);
+            methods.put(method.name.symbol, function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
+        LoxClass klass = new LoxClass(stmt.name.lexeme(), (LoxClass)superclass, methods);
 
         if(stmt.superclass != null) environment = environment.enclosing;
 
-        environment.assign(stmt.name, klass);
-        return null;
+        define(stmt.slot, stmt.name, klass);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Function stmt) {
-        environment.define(stmt.name.lexeme, new LoxFunction(stmt, environment, false));
-        return null;
+    public Completion visitFunctionStmt(Function stmt) {
+        define(stmt.slot, stmt.name, new LoxFunction(stmt, environment, false));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Return stmt) {
+    public Completion visitReturnStmt(Return stmt) {
         Object value = null;
-        if(stmt.value != null) value = evaluate(stmt.value);
+        if (stmt.value instanceof Call && ((Call) stmt.value).isTailCall) {
+            value = tailCall((Call) stmt.value);
+        } else if(stmt.value != null) {
+            value = evaluate(stmt.value);
+        }
 
-        throw new LoxReturn(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitBlockStmt(Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Block stmt) {
+        return executeBlock(stmt.statements, new Environment(environment, stmt.frameSize));
     }
 
     @Override
-    public Void visitExpressionStmt(Expression stmt) {
+    public Completion visitExpressionStmt(Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(If stmt) {
-        if (isTruthy(evaluate(stmt.Condition))) {
-            execute(stmt.thenBranch);
+    public Completion visitIfStmt(If stmt) {
+        if (evaluateCondition(stmt.Condition)) {
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Print stmt) {
+    public Completion visitPrintStmt(Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+        context.out.println(stringify(value));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Var stmt) {
+    public Completion visitVarStmt(Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.slot, stmt.name, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
-            try {
-                execute(stmt.body);
-            } catch (BreakException e) {
-                break;
-            } catch (ContinueException e) {
-                continue;
-            }
+    public Completion visitWhileStmt(While stmt) {
+        while (evaluateCondition(stmt.condition)) {
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitForStmt(For stmt) {
+    public Completion visitForStmt(For stmt) {
         execute(stmt.initializer);
-        while (isTruthy(evaluate(stmt.condition))) {
+        while (evaluateCondition(stmt.condition)) {
+            Completion completion = null;
+            // The increment also runs when the body breaks, returns or
+            // fails with a runtime error. Functions it calls must not
+            // clobber the value being returned.
             try {
-                execute(stmt.body);
-            } catch (BreakException e) {
-                break;
-            } catch (ContinueException e) {
-                continue;
+                completion = execute(stmt.body);
             } finally {
-                evaluate(stmt.increment);
+                if (completion == Completion.RETURN) {
+                    Object value = returnValue;
+                    evaluate(stmt.increment);
+                    returnValue = value;
+                } else {
+                    evaluate(stmt.increment);
+                }
             }
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBreakStmt(Break stmt) {
-        throw new BreakException();
+    public Completion visitBreakStmt(Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitContinueStmt(Continue stmt) {
-        throw new ContinueException();
+    public Completion visitContinueStmt(Continue stmt) {
+        return Completion.CONTINUE;
     }
 
     @Override
@@ -201,56 +260,183 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        if (!expr.generic) {
+            try {
+                switch (expr.operator.type) {
+                    case PLUS:
+                    case MINUS:
+                    case STAR:
+                    case SLASH:
+                        return arithmetic(expr);
+                    case GREATER:
+                    case GREATER_EQUAL:
+                    case LESS:
+                    case LESS_EQUAL:
+                        return comparison(expr);
+                    default:
+                        break;
+                }
+            } catch (UnexpectedValue e) {
+                return e.value;
+            }
+        }
+
+        return binary(expr.operator, evaluate(expr.left), evaluate(expr.right));
+    }
+
+    // Evaluates an expression whose value is needed as a number. Arithmetic
+    // nodes compute their operands the same way, so a nested expression
+    // like 'a + b * c - d' boxes only its final result. When an operand
+    // turns out not to be a number the node is marked generic, finishes
+    // the operation on boxed values and is never specialized again.
+    double evaluateDouble(Expr expr){
+        if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            if (!binary.generic) {
+                switch (binary.operator.type) {
+                    case PLUS:
+                    case MINUS:
+                    case STAR:
+                    case SLASH:
+                        return arithmetic(binary);
+                    default:
+                        break;
+                }
+            }
+        } else if (expr instanceof Unary && ((Unary) expr).operator.type == TokenType.MINUS) {
+            Unary unary = (Unary) expr;
+            try {
+                return -evaluateDouble(unary.right);
+            } catch (UnexpectedValue e) {
+                throw new RuntimeError(unary.operator, "Operand must be a number.");
+            }
+        } else if (expr instanceof Grouping) {
+            return evaluateDouble(((Grouping) expr).expression);
+        } else if (expr instanceof Literal && ((Literal) expr).value instanceof Double) {
+            return (double) ((Literal) expr).value;
+        }
+
+        return asDouble(evaluate(expr));
+    }
+
+    // Conditions of if, while and for: comparisons produce their result
+    // without going through a Boolean.
+    boolean evaluateCondition(Expr expr){
+        if (expr instanceof Binary && !((Binary) expr).generic) {
+            Binary binary = (Binary) expr;
+            switch (binary.operator.type) {
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                    try {
+                        return comparison(binary);
+                    } catch (UnexpectedValue e) {
+                        return isTruthy(e.value);
+                    }
+                default:
+                    break;
+            }
+        }
+        return isTruthy(evaluate(expr));
+    }
+
+    private double arithmetic(Binary expr){
+        double left;
+        try {
+            left = evaluateDouble(expr.left);
+        } catch (UnexpectedValue e) {
+            expr.generic = true;
+            return asDouble(binary(expr.operator, e.value, evaluate(expr.right)));
+        }
+
+        double right;
+        try {
+            right = evaluateDouble(expr.right);
+        } catch (UnexpectedValue e) {
+            expr.generic = true;
+            return asDouble(binary(expr.operator, left, e.value));
+        }
+
+        switch (expr.operator.type) {
+            case PLUS:
+                return left + right;
+            case MINUS:
+                return left - right;
+            case STAR:
+                return left * right;
+            default:
+                if (right == 0) throw new RuntimeError(expr.operator, "Division by zero.");
+                return left / right;
+        }
+    }
+
+    private boolean comparison(Binary expr){
+        double left;
+        try {
+            left = evaluateDouble(expr.left);
+        } catch (UnexpectedValue e) {
+            expr.generic = true;
+            throw new UnexpectedValue(binary(expr.operator, e.value, evaluate(expr.right)));
+        }
+
+        double right;
+        try {
+            right = evaluateDouble(expr.right);
+        } catch (UnexpectedValue e) {
+            expr.generic = true;
+            throw new UnexpectedValue(binary(expr.operator, left, e.value));
+        }
 
         switch (expr.operator.type) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            default:
+                return left <= right;
+        }
+    }
+
+    static double asDouble(Object value){
+        if (value instanceof Double) return (double) value;
+        throw new UnexpectedValue(value);
+    }
+
+    // The operators on boxed values, for operands of any type.
+    static Object binary(Token operator, Object left, Object right){
+        switch (operator.type) {
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left > (double)right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left >= (double)right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left < (double)right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left <= (double)right;
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left - (double)right;
             case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                }
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
-                if (left instanceof String && right instanceof Double) {
-                    right = String.valueOf((double)right);
-                    if(((String) right).endsWith(".0")) right = ((String) right).substring(0, ((String) right).length()-2);
-                    return (String)left + (String)right;
-                }
-                if (left instanceof Double && right instanceof String) {
-                    left = String.valueOf((double)left);
-                    if(((String) left).endsWith(".0")) left = ((String) left).substring(0, ((String) left).length()-2);
-                    return (String)left + (String)right;
-                }
-                
-                throw new RuntimeError(expr.operator, "Operand must be two numbers or two strings or mix of it.");
+                return add(operator, left, right);
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 if(((double)right) == 0)
-                    throw new RuntimeError(expr.operator, "Division by zero.");
+                    throw new RuntimeError(operator, "Division by zero.");
                     
                 return (double)left / (double)right;
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left * (double)right;
         }
 
@@ -272,15 +458,13 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Unary expr) {
-        Object right = evaluate(expr.right);
-
         switch (expr.operator.type) {
             case BANG:
-                return !isTruthy(right);
+                return !isTruthy(evaluate(expr.right));
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return evaluateDouble(expr);
         }
+        evaluate(expr.right);
         return null;
     }
 
@@ -291,14 +475,29 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
+    }
+
+    // A temporary the Hoister introduced: its expression is evaluated the
+    // first time and the stored value returned after that.
+    @Override
+    public Object visitTempExpr(Temp expr) {
+        Object value = expr.depth != -1 ? environment.getAt(expr.depth, expr.slot) : globals.get(expr.name);
+        if (value == null) {
+            value = evaluate(expr.expression);
+            if (expr.depth != -1) {
+                environment.assignAt(expr.depth, expr.slot, value);
+            } else {
+                globals.assign(expr.name, value);
+            }
+        }
+        return value;
     }
 
-    private Object lookUpVariable(Token name, Expr expr){
+    private Object lookUpVariable(Token name, int depth, int slot){
         Object value = null;
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            value = environment.getAt(distance, name.lexeme);
+        if (depth != -1) {
+            value = environment.getAt(depth, slot);
         }else{
             value = globals.get(name);
         }
@@ -312,9 +511,8 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
     @Override
     public Object visitAssignExpr(Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value); 
+        if (expr.depth != -1) {
+            environment.assignAt(expr.depth, expr.slot, value);
         }else{
             globals.assign(expr.name, value);
         }
@@ -329,54 +527,215 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance) instance).set(expr.name, value);
+        expr.cache.set((LoxInstance) instance, expr.name, value);
 
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
+        int distance = expr.depth;
+        LoxClass superclass = (LoxClass)environment.getAt(distance, 0);
+        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, 0);
 
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        LoxFunction method = superclass.findMethod(expr.method.symbol);
 
         if (method == null) {
-            throw new RuntimeError(expr.method, "Undefined property '"+ expr.method.lexeme +"'.");
+            throw new RuntimeError(expr.method, "Undefined property '"+ expr.method.lexeme() +"'.");
         }
         return method.bind(object);
     }
 
     @Override
     public Object visitThisExpr(This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
     public Object visitCallExpr(Call expr) {
+        if (expr.callee instanceof Get) return invoke(expr, (Get) expr.callee);
+        if (expr.callee instanceof Super) return invokeSuper(expr, (Super) expr.callee);
+
         Object callee = evaluate(expr.callee);
+        return call(expr, callee);
+    }
+
+    // 'object.name(...)': a method is called with the object as receiver
+    // instead of being bound first, so the call allocates only its frame.
+    // A field holding a function is called like any other value.
+    private Object invoke(Call expr, Get get){
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(get.name, "Only instances have properties.");
+        }
+        LoxInstance instance = (LoxInstance) object;
+
+        LoxFunction method = get.cache.method(instance, get.name);
+        if (method == null) {
+            Object callee = get.cache.get(instance, get.name);
+            return call(expr, callee);
+        }
+        return callMethod(expr, method, instance);
+    }
+
+    private Object invokeSuper(Call expr, Super callee){
+        int distance = callee.depth;
+        LoxClass superclass = (LoxClass)environment.getAt(distance, 0);
+        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, 0);
+
+        LoxFunction method = superclass.findMethod(callee.method.symbol);
+        if (method == null) {
+            throw new RuntimeError(callee.method, "Undefined property '"+ callee.method.lexeme() +"'.");
+        }
+        return callMethod(expr, method, object);
+    }
+
+    // Calls with up to three arguments keep them in locals and go through
+    // the fixed-arity entry points; only longer ones build an array.
+    // Arguments are evaluated before the callee is checked.
+    private Object call(Call expr, Object callee){
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                return callable(expr, callee, 0).call0(this);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                return callable(expr, callee, 1).call1(this, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return callable(expr, callee, 2).call2(this, a, b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                return callable(expr, callee, 3).call3(this, a, b, c);
+            }
+            default: {
+                Object[] values = evaluateArguments(expr);
+                return callable(expr, callee, values.length).call(this, values);
+            }
+        }
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    private Object callMethod(Call expr, LoxFunction method, LoxInstance receiver){
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                checkArity(expr, method, 0);
+                return method.callMethod(this, receiver);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                checkArity(expr, method, 1);
+                return method.callMethod(this, receiver, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                checkArity(expr, method, 2);
+                return method.callMethod(this, receiver, a, b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                checkArity(expr, method, 3);
+                return method.callMethod(this, receiver, a, b, c);
+            }
+            default: {
+                Object[] values = evaluateArguments(expr);
+                checkArity(expr, method, values.length);
+                return method.callMethod(this, receiver, values);
+            }
         }
+    }
+
+    // Evaluates a tail call up to the point of calling a LoxFunction, which
+    // is left for the trampoline in LoxFunction.run. Anything else callable
+    // is simply called.
+    private Object tailCall(Call expr){
+        if (expr.callee instanceof Get) {
+            Get get = (Get) expr.callee;
+            Object object = evaluate(get.object);
+            if (!(object instanceof LoxInstance)) {
+                throw new RuntimeError(get.name, "Only instances have properties.");
+            }
+            LoxInstance instance = (LoxInstance) object;
 
+            LoxFunction method = get.cache.method(instance, get.name);
+            if (method == null) {
+                return tailCall(expr, get.cache.get(instance, get.name));
+            }
+            return tailCall(expr, method, instance);
+        }
+
+        if (expr.callee instanceof Super) {
+            Super callee = (Super) expr.callee;
+            int distance = callee.depth;
+            LoxClass superclass = (LoxClass)environment.getAt(distance, 0);
+            LoxInstance object = (LoxInstance)environment.getAt(distance - 1, 0);
+
+            LoxFunction method = superclass.findMethod(callee.method.symbol);
+            if (method == null) {
+                throw new RuntimeError(callee.method, "Undefined property '"+ callee.method.lexeme() +"'.");
+            }
+            return tailCall(expr, method, object);
+        }
+
+        return tailCall(expr, evaluate(expr.callee));
+    }
+
+    private Object tailCall(Call expr, Object callee){
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            return tailCall(expr, function, function.receiver);
+        }
+        return call(expr, callee);
+    }
+
+    private Object tailCall(Call expr, LoxFunction function, LoxInstance receiver){
+        Environment frame = function.frame(receiver);
+        List<Expr> arguments = expr.arguments;
+        for (int i = 0; i < arguments.size(); i++) {
+            frame.define(i + 1, evaluate(arguments.get(i)));
+        }
+        checkArity(expr, function, arguments.size());
+
+        tailFunction = function;
+        tailFrame = frame;
+        return TAIL_CALL;
+    }
+
+    private Object[] evaluateArguments(Call expr){
+        Object[] values = new Object[expr.arguments.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = evaluate(expr.arguments.get(i));
+        }
+        return values;
+    }
+
+    private static LoxCallable callable(Call expr, Object callee, int count){
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren,"Can only call functions and classes.");
         }
         LoxCallable function = (LoxCallable) callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
+        checkArity(expr, function, count);
+        return function;
+    }
+
+    private static void checkArity(Call expr, LoxCallable function, int count){
+        if (count != function.arity()) {
+            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + count + ".");
         }
-        return function.call(this, arguments);
     }
 
     @Override
     public Object visitGetExpr(Get expr) {
         Object instance = evaluate(expr.object);
         if (instance instanceof LoxInstance) {
-            return ((LoxInstance) instance).get(expr.name);
+            return expr.cache.get((LoxInstance) instance, expr.name);
         }
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
@@ -385,21 +744,27 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt){
-        stmt.accept(this);
+    private Completion execute(Stmt stmt){
+        return stmt.accept(this);
     }
 
-    public void resolve(Expr expr, Integer depth){
-        locals.put(expr, depth);
+    private void define(int slot, Token name, Object value){
+        if (slot != -1) {
+            environment.define(slot, value);
+        } else {
+            globals.define(name.symbol, value);
+        }
     }
 
-    public void executeBlock(List<Stmt> statements, Environment environment){
+    public Completion executeBlock(List<Stmt> statements, Environment environment){
         Environment previous = this.environment;
         try {
             this.environment = environment;
             for (Stmt stmt : statements) {
-                execute(stmt);
+                Completion completion = execute(stmt);
+                if (completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } 
         finally {
             this.environment = previous;
@@ -407,19 +772,47 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
     }
 
-    private Boolean isTruthy(Object obj){
+    // Hands the value of the last return statement to the function that
+    // was returned from.
+    Object takeReturnValue(){
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    static Object add(Token operator, Object left, Object right){
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+        if (LoxString.isString(left) && LoxString.isString(right)) {
+            return LoxString.concat(left, right);
+        }
+        if (LoxString.isString(left) && right instanceof Double) {
+            return LoxString.concat(left, stringify(right));
+        }
+        if (left instanceof Double && LoxString.isString(right)) {
+            return LoxString.concat(stringify(left), right);
+        }
+
+        throw new RuntimeError(operator, "Operand must be two numbers or two strings or mix of it.");
+    }
+
+    static boolean isTruthy(Object obj){
         if(obj == null) return false;
         if(obj instanceof Boolean) return (boolean)obj;
         return true;
     }
 
-    private Boolean isEqual(Object a, Object b){
+    static boolean isEqual(Object a, Object b){
         if(a == null && b == null) return true;
         if(a == null) return false;
+        if (a instanceof LoxString || b instanceof LoxString) {
+            return LoxString.isString(a) && LoxString.isString(b) && a.toString().equals(b.toString());
+        }
         return a.equals(b);
     }
 
-    private String stringify(Object obj){
+    static String stringify(Object obj){
         if(obj == null) return "nil";
         if (obj instanceof Double) {
             String text = obj.toString();
@@ -431,12 +824,12 @@ public class Interpreter implements Expr.Visitor<Object> , Stmt.Visitor<Void> {
         return obj.toString();
     }
 
-    private Boolean checkNumberOperand(Token operator, Object operand){
+    static Boolean checkNumberOperand(Token operator, Object operand){
         if(operand instanceof Double) return true;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
     
-    private Boolean checkNumberOperands(Token operator, Object left, Object right){
+    static Boolean checkNumberOperands(Token operator, Object left, Object right){
         if(left instanceof Double && right instanceof Double) return true;
         throw new RuntimeError(operator, "Operand must be a numbers.");
     }
@@ -0,0 +1,649 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.ClassFileWriter.*;
+import static com.craftinginterpreters.lox.TokenType.OR;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.ClassFileWriter.Code;
+import com.craftinginterpreters.lox.ClassFileWriter.Label;
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+import com.craftinginterpreters.lox.JvmRuntime.ClassTemplate;
+import com.craftinginterpreters.lox.JvmRuntime.FunctionTemplate;
+import com.craftinginterpreters.lox.Stmt.Block;
+import com.craftinginterpreters.lox.Stmt.Break;
+import com.craftinginterpreters.lox.Stmt.Class;
+import com.craftinginterpreters.lox.Stmt.Continue;
+import com.craftinginterpreters.lox.Stmt.Expression;
+import com.craftinginterpreters.lox.Stmt.For;
+import com.craftinginterpreters.lox.Stmt.Function;
+import com.craftinginterpreters.lox.Stmt.If;
+import com.craftinginterpreters.lox.Stmt.Print;
+import com.craftinginterpreters.lox.Stmt.Return;
+import com.craftinginterpreters.lox.Stmt.Var;
+import com.craftinginterpreters.lox.Stmt.While;
+
+// Compiles the resolved program ahead of time into a hidden JVM class: the
+// top-level code and every function or method body become a static method
+// taking the Environment of the call. Values stay dynamically typed Objects
+// and every Lox operation is a call into JvmRuntime, so the JIT sees plain
+// straight-line bytecode instead of visitor dispatch.
+public class JvmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String CLASS_NAME = "com/craftinginterpreters/lox/LoxScript";
+    private static final String RUNTIME = "com/craftinginterpreters/lox/JvmRuntime";
+    private static final String INTERPRETER = "com/craftinginterpreters/lox/Interpreter";
+    private static final String ENVIRONMENT = "com/craftinginterpreters/lox/Environment";
+    private static final String TOKEN = "com/craftinginterpreters/lox/Token";
+    private static final String OBJECT = "java/lang/Object";
+
+    private static final String E = "L" + ENVIRONMENT + ";";
+    private static final String T = "L" + TOKEN + ";";
+    private static final String O = "L" + OBJECT + ";";
+    private static final String BODY = "(" + E + ")" + O;
+
+    private static final int GLOBALS = 0;
+    private static final int INTERPRETER_CONSTANT = 1;
+
+    private final Interpreter interpreter;
+
+    // State for the class being generated.
+    private ClassFileWriter writer;
+    private List<Object> constants;
+    private Map<Object, Integer> constantIndex;
+    private List<FunctionTemplate> templates;
+
+    // State for the method being generated.
+    private Code code;
+    private int environment;
+    private Loop loop;
+
+    private static class Loop {
+        final Loop enclosing;
+        final Label continueLabel = new Label();
+        final Label breakLabel = new Label();
+        // Set for 'for' loops whose increment has to run when the body
+        // exits early, like the finally block in Interpreter.visitForStmt.
+        final Expr increment;
+        final int environment;
+        final List<int[]> ranges = new ArrayList<>();
+        int rangeStart = -1;
+
+        Loop(Loop enclosing, Expr increment, int environment){
+            this.enclosing = enclosing;
+            this.increment = increment;
+            this.environment = environment;
+        }
+
+        void open(int position){
+            if (increment != null && rangeStart == -1) rangeStart = position;
+        }
+
+        void close(int position){
+            if (rangeStart != -1) {
+                ranges.add(new int[]{rangeStart, position});
+                rangeStart = -1;
+            }
+        }
+    }
+
+    JvmCompiler(Interpreter interpreter){
+        this.interpreter = interpreter;
+    }
+
+    // Compiles a script once into something that runs it as often as
+    // needed against this compiler's globals.
+    Runnable load(List<Stmt> statements){
+        MethodHandle script;
+        try {
+            script = compile(statements);
+        } catch (TooLargeException error) {
+            return () -> interpreter.interpret(statements);
+        }
+
+        return () -> {
+            try {
+                JvmRuntime.invoke(script, interpreter.globals);
+            } catch (RuntimeError error) {
+                interpreter.context.runtimeError(error);
+            }
+        };
+    }
+
+    MethodHandle compile(List<Stmt> statements){
+        writer = new ClassFileWriter(CLASS_NAME);
+        constants = new ArrayList<>();
+        constantIndex = new IdentityHashMap<>();
+        templates = new ArrayList<>();
+
+        try {
+            constant(interpreter.globals);
+            constant(interpreter);
+            method("script", statements);
+            writer.field(ACC_STATIC, "K", "[" + O);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+            java.lang.Class<?> script = lookup.lookupClass();
+            lookup.findStaticVarHandle(script, "K", Object[].class).set(constants.toArray());
+
+            MethodType type = MethodType.methodType(Object.class, Environment.class);
+            for (int i = 0; i < templates.size(); i++) {
+                templates.get(i).body = lookup.findStatic(script, "f" + i, type);
+            }
+            return lookup.findStatic(script, "script", type);
+        } catch (ReflectiveOperationException error) {
+            throw new IllegalStateException(error);
+        } finally {
+            writer = null;
+            constants = null;
+            constantIndex = null;
+            templates = null;
+        }
+    }
+
+    private void method(String name, List<Stmt> body){
+        Code enclosingCode = code;
+        int enclosingEnvironment = environment;
+        Loop enclosingLoop = loop;
+
+        code = writer.new Code(1);
+        environment = 0;
+        loop = null;
+
+        for (Stmt stmt : body) {
+            compile(stmt);
+        }
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        writer.method(ACC_STATIC, name, BODY, code);
+
+        code = enclosingCode;
+        environment = enclosingEnvironment;
+        loop = enclosingLoop;
+    }
+
+    private FunctionTemplate function(Stmt.Function declaration){
+        FunctionTemplate template = new FunctionTemplate(declaration);
+        String name = "f" + templates.size();
+        templates.add(template);
+        method(name, declaration.body);
+        return template;
+    }
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    private int constant(Object value){
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        return index;
+    }
+
+    private void loadConstant(Object value, String type){
+        code.getstatic(writer.name(), "K", "[" + O);
+        code.iconst(constant(value));
+        code.op(AALOAD, -1);
+        if (type != null) code.typed(CHECKCAST, type, 0);
+    }
+
+    private void loadGlobals(){
+        code.getstatic(writer.name(), "K", "[" + O);
+        code.iconst(GLOBALS);
+        code.op(AALOAD, -1);
+        code.typed(CHECKCAST, ENVIRONMENT, 0);
+    }
+
+    private void runtime(String name, String descriptor){
+        code.invokestatic(RUNTIME, name, descriptor);
+    }
+
+    private void truthy(){
+        code.invokestatic(INTERPRETER, "isTruthy", "(" + O + ")Z");
+    }
+
+    // Stores the value on top of the stack into a declaration's slot, or
+    // into the globals when it was declared at the top level.
+    private void define(int slot, Token name){
+        if (slot == -1) {
+            loadGlobals();
+            loadConstant(name, TOKEN);
+            runtime("defineGlobal", "(" + O + E + T + ")V");
+        } else {
+            code.aload(environment);
+            code.iconst(slot);
+            runtime("defineLocal", "(" + O + E + "I)V");
+        }
+    }
+
+    @Override
+    public Void visitClassStmt(Class stmt) {
+        FunctionTemplate[] methods = new FunctionTemplate[stmt.methods.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = function(stmt.methods.get(i));
+        }
+
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        code.aload(environment);
+        loadConstant(new ClassTemplate(stmt, methods), RUNTIME + "$ClassTemplate");
+        runtime("klass", "(" + O + E + "L" + RUNTIME + "$ClassTemplate;)" + O);
+        define(stmt.slot, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        FunctionTemplate template = function(stmt);
+        code.aload(environment);
+        loadConstant(template, RUNTIME + "$FunctionTemplate");
+        runtime("function", "(" + E + "L" + RUNTIME + "$FunctionTemplate;)" + O);
+        define(stmt.slot, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+
+        boolean unwinds = false;
+        for (Loop l = loop; l != null; l = l.enclosing) {
+            if (l.increment != null) unwinds = true;
+        }
+
+        if (unwinds) {
+            int result = code.newLocal();
+            code.astore(result);
+            for (Loop l = loop; l != null; l = l.enclosing) {
+                if (l.increment == null) continue;
+                // An increment failing here is seen by the loops around
+                // this one, but not by this loop or the ones inside it.
+                for (Loop inner = loop; inner != l.enclosing; inner = inner.enclosing) {
+                    inner.close(code.position());
+                }
+                int enclosingEnvironment = environment;
+                environment = l.environment;
+                compile(l.increment);
+                code.op(POP, -1);
+                environment = enclosingEnvironment;
+            }
+            code.aload(result);
+        }
+        code.op(ARETURN, -1);
+
+        for (Loop l = loop; l != null; l = l.enclosing) {
+            l.open(code.position());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        int enclosingEnvironment = environment;
+        code.aload(environment);
+        code.iconst(stmt.frameSize);
+        runtime("scope", "(" + E + "I)" + E);
+        environment = code.newLocal();
+        code.astore(environment);
+
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+
+        environment = enclosingEnvironment;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        compile(stmt.expression);
+        code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        Label elseBranch = new Label();
+        Label end = new Label();
+
+        compile(stmt.Condition);
+        truthy();
+        code.jump(IFEQ, elseBranch);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            code.jump(GOTO, end);
+        }
+        code.mark(elseBranch);
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        compile(stmt.expression);
+        loadConstant(interpreter, INTERPRETER);
+        runtime("print", "(" + O + "L" + INTERPRETER + ";)V");
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        define(stmt.slot, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        loop = new Loop(loop, null, environment);
+
+        code.mark(loop.continueLabel);
+        compile(stmt.condition);
+        truthy();
+        code.jump(IFEQ, loop.breakLabel);
+        compile(stmt.body);
+        code.jump(GOTO, loop.continueLabel);
+        code.mark(loop.breakLabel);
+
+        loop = loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(For stmt) {
+        compile(stmt.initializer);
+
+        // A literal increment (the parser's stand-in for a missing one) has
+        // no effect, so it needs no exception handler or extra copies.
+        Expr increment = stmt.increment instanceof Literal ? null : stmt.increment;
+        Loop forLoop = new Loop(loop, increment, environment);
+        Label top = new Label();
+        Label end = new Label();
+
+        code.mark(top);
+        compile(stmt.condition);
+        truthy();
+        code.jump(IFEQ, end);
+
+        loop = forLoop;
+        forLoop.open(code.position());
+        compile(stmt.body);
+        forLoop.close(code.position());
+        loop = forLoop.enclosing;
+
+        code.mark(forLoop.continueLabel);
+        compile(stmt.increment);
+        code.op(POP, -1);
+        code.jump(GOTO, top);
+
+        code.mark(forLoop.breakLabel);
+        if (increment != null) {
+            compile(increment);
+            code.op(POP, -1);
+        }
+        code.mark(end);
+
+        if (!forLoop.ranges.isEmpty()) {
+            Label after = new Label();
+            code.jump(GOTO, after);
+
+            int handler = code.position();
+            for (int[] range : forLoop.ranges) {
+                code.handler(range[0], range[1], handler);
+            }
+            code.setStack(1);
+            int error = code.newLocal();
+            code.astore(error);
+            compile(increment);
+            code.op(POP, -1);
+            code.aload(error);
+            code.op(ATHROW, -1);
+
+            code.mark(after);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Break stmt) {
+        code.jump(GOTO, loop.breakLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Continue stmt) {
+        code.jump(GOTO, loop.continueLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        compile(expr.value);
+        if (expr.depth == -1) {
+            loadGlobals();
+            loadConstant(expr.name, TOKEN);
+            runtime("assignGlobal", "(" + O + E + T + ")" + O);
+        } else {
+            code.aload(environment);
+            code.iconst(expr.depth);
+            code.iconst(expr.slot);
+            runtime("assignLocal", "(" + O + E + "II)" + O);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        Label end = new Label();
+        compile(expr.left);
+        code.op(DUP, 1);
+        truthy();
+        code.jump(expr.operator.type == OR ? IFNE : IFEQ, end);
+        code.op(POP, -1);
+        compile(expr.right);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        compile(expr.object);
+        loadConstant(expr.name, TOKEN);
+        runtime("checkInstance", "(" + O + T + ")" + O);
+        compile(expr.value);
+        loadConstant(expr.name, TOKEN);
+        runtime("set", "(" + O + O + T + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Super expr) {
+        code.aload(environment);
+        code.iconst(expr.depth);
+        loadConstant(expr.method, TOKEN);
+        runtime("superMethod", "(" + E + "I" + T + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        variable(expr.keyword, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        String operation = null;
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                compile(expr.left);
+                compile(expr.right);
+                runtime("notEqual", "(" + O + O + ")" + O);
+                return null;
+            case EQUAL_EQUAL:
+                compile(expr.left);
+                compile(expr.right);
+                runtime("equal", "(" + O + O + ")" + O);
+                return null;
+            case PLUS:
+                loadConstant(expr.operator, TOKEN);
+                compile(expr.left);
+                compile(expr.right);
+                code.invokestatic(INTERPRETER, "add", "(" + T + O + O + ")" + O);
+                return null;
+            case GREATER: operation = "greater"; break;
+            case GREATER_EQUAL: operation = "greaterEqual"; break;
+            case LESS: operation = "less"; break;
+            case LESS_EQUAL: operation = "lessEqual"; break;
+            case MINUS: operation = "subtract"; break;
+            case SLASH: operation = "divide"; break;
+            case STAR: operation = "multiply"; break;
+            default:
+                compile(expr.left);
+                compile(expr.right);
+                code.op(POP, -1);
+                code.op(POP, -1);
+                code.op(ACONST_NULL, 1);
+                return null;
+        }
+
+        loadConstant(expr.operator, TOKEN);
+        compile(expr.left);
+        compile(expr.right);
+        runtime(operation, "(" + T + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Call expr) {
+        compile(expr.callee);
+        code.iconst(expr.arguments.size());
+        code.typed(ANEWARRAY, OBJECT, 0);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.iconst(i);
+            compile(expr.arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+        loadConstant(expr.paren, TOKEN);
+        code.getstatic(writer.name(), "K", "[" + O);
+        code.iconst(INTERPRETER_CONSTANT);
+        code.op(AALOAD, -1);
+        code.typed(CHECKCAST, INTERPRETER, 0);
+        runtime("call", "(" + O + "[" + O + T + "L" + INTERPRETER + ";)" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        compile(expr.object);
+        loadConstant(expr.name, TOKEN);
+        runtime("get", "(" + O + T + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        if (expr.value == null) {
+            code.op(ACONST_NULL, 1);
+        } else if (expr.value instanceof Boolean) {
+            code.getstatic("java/lang/Boolean", (Boolean) expr.value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else if (expr.value instanceof String) {
+            code.ldc(writer.string((String) expr.value));
+        } else {
+            loadConstant(expr.value, null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        switch (expr.operator.type) {
+            case BANG:
+                compile(expr.right);
+                runtime("not", "(" + O + ")" + O);
+                return null;
+            case MINUS:
+                loadConstant(expr.operator, TOKEN);
+                compile(expr.right);
+                runtime("negate", "(" + T + O + ")" + O);
+                return null;
+        }
+        compile(expr.right);
+        code.op(POP, -1);
+        code.op(ACONST_NULL, 1);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        variable(expr.name, expr.depth, expr.slot);
+        return null;
+    }
+
+    // Temporaries are not kept by this engine, the expression just runs.
+    @Override
+    public Void visitTempExpr(Temp expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    private void variable(Token name, int depth, int slot){
+        if (depth == -1) {
+            loadGlobals();
+            loadConstant(name, TOKEN);
+            runtime("getGlobal", "(" + E + T + ")" + O);
+        } else {
+            code.aload(environment);
+            code.iconst(depth);
+            code.iconst(slot);
+            loadConstant(name, TOKEN);
+            runtime("getLocal", "(" + E + "II" + T + ")" + O);
+        }
+    }
+}
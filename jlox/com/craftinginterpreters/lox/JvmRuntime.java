@@ -0,0 +1,230 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.util.HashMap;
+import java.util.Map;
+
+// Static entry points called from the classes JvmCompiler generates. They
+// keep Lox semantics (dynamic types, environments, classes) in one place so
+// the emitted bytecode stays a flat sequence of calls and jumps.
+class JvmRuntime {
+
+    static class FunctionTemplate {
+        final Stmt.Function declaration;
+        MethodHandle body;
+
+        FunctionTemplate(Stmt.Function declaration){
+            this.declaration = declaration;
+        }
+    }
+
+    static class ClassTemplate {
+        final Stmt.Class declaration;
+        final FunctionTemplate[] methods;
+
+        ClassTemplate(Stmt.Class declaration, FunctionTemplate[] methods){
+            this.declaration = declaration;
+            this.methods = methods;
+        }
+    }
+
+    // A LoxFunction whose body is a static method of a generated class,
+    // taking the call's environment and returning the Lox return value.
+    static class JvmFunction extends LoxFunction {
+        private final MethodHandle body;
+
+        JvmFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, MethodHandle body){
+            this(declaration, closure, isInitializer, body, null);
+        }
+
+        JvmFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, MethodHandle body, LoxInstance receiver){
+            super(declaration, closure, isInitializer, receiver);
+            this.body = body;
+        }
+
+        @Override
+        Object run(Interpreter interpreter, Environment environment) {
+            Object result = invoke(body, environment);
+            if (isInitializer) {
+                return environment.getAt(0, 0);
+            }
+            return result;
+        }
+
+        @Override
+        public LoxFunction bind(LoxInstance instance){
+            return new JvmFunction(declaration, closure, isInitializer, body, instance);
+        }
+    }
+
+    static Object invoke(MethodHandle body, Environment environment){
+        try {
+            return (Object) body.invokeExact(environment);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Environment scope(Environment enclosing, int size){
+        return new Environment(enclosing, size);
+    }
+
+    static Object getLocal(Environment environment, int depth, int slot, Token name){
+        return initialized(name, environment.getAt(depth, slot));
+    }
+
+    static Object getGlobal(Environment globals, Token name){
+        return initialized(name, globals.get(name));
+    }
+
+    private static Object initialized(Token name, Object value){
+        if (value == null) {
+            throw new RuntimeError(name, "Variable not been initialized.");
+        }
+        return value;
+    }
+
+    static Object assignLocal(Object value, Environment environment, int depth, int slot){
+        environment.assignAt(depth, slot, value);
+        return value;
+    }
+
+    static Object assignGlobal(Object value, Environment globals, Token name){
+        globals.assign(name, value);
+        return value;
+    }
+
+    static void defineLocal(Object value, Environment environment, int slot){
+        environment.define(slot, value);
+    }
+
+    static void defineGlobal(Object value, Environment globals, Token name){
+        globals.define(name.symbol, value);
+    }
+
+    static void print(Object value, Interpreter interpreter){
+        interpreter.context.out.println(Interpreter.stringify(value));
+    }
+
+    static Object not(Object value){
+        return !Interpreter.isTruthy(value);
+    }
+
+    static Object negate(Token operator, Object value){
+        Interpreter.checkNumberOperand(operator, value);
+        return -(double)value;
+    }
+
+    static Object equal(Object left, Object right){
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right){
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object greater(Token operator, Object left, Object right){
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left > (double)right;
+    }
+
+    static Object greaterEqual(Token operator, Object left, Object right){
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left >= (double)right;
+    }
+
+    static Object less(Token operator, Object left, Object right){
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left < (double)right;
+    }
+
+    static Object lessEqual(Token operator, Object left, Object right){
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left <= (double)right;
+    }
+
+    static Object subtract(Token operator, Object left, Object right){
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left - (double)right;
+    }
+
+    static Object multiply(Token operator, Object left, Object right){
+        Interpreter.checkNumberOperands(operator, left, right);
+        return (double)left * (double)right;
+    }
+
+    static Object divide(Token operator, Object left, Object right){
+        Interpreter.checkNumberOperands(operator, left, right);
+        if(((double)right) == 0)
+            throw new RuntimeError(operator, "Division by zero.");
+        return (double)left / (double)right;
+    }
+
+    static Object call(Object callee, Object[] arguments, Token paren, Interpreter interpreter){
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren,"Can only call functions and classes.");
+        }
+        LoxCallable function = (LoxCallable) callee;
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + arguments.length + ".");
+        }
+        return function.call(interpreter, arguments);
+    }
+
+    static Object get(Object object, Token name){
+        if (object instanceof LoxInstance) {
+            return ((LoxInstance) object).get(name);
+        }
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    static Object checkInstance(Object object, Token name){
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+        return object;
+    }
+
+    static Object set(Object object, Object value, Token name){
+        ((LoxInstance) object).set(name, value);
+        return value;
+    }
+
+    static Object superMethod(Environment environment, int distance, Token method){
+        LoxClass superclass = (LoxClass)environment.getAt(distance, 0);
+        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, 0);
+
+        LoxFunction function = superclass.findMethod(method.symbol);
+        if (function == null) {
+            throw new RuntimeError(method, "Undefined property '"+ method.lexeme() +"'.");
+        }
+        return function.bind(object);
+    }
+
+    static Object function(Environment environment, FunctionTemplate template){
+        return new JvmFunction(template.declaration, environment, false, template.body);
+    }
+
+    static Object klass(Object superclass, Environment environment, ClassTemplate template){
+        Stmt.Class stmt = template.declaration;
+        if (stmt.superclass != null && !(superclass instanceof LoxClass)) {
+            throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+        }
+
+        Environment closure = environment;
+        if (stmt.superclass != null) {
+            closure = new Environment(environment, 1);
+            closure.define(0, superclass);
+        }
+
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
+        for (FunctionTemplate method : template.methods) {
+            Symbol name = method.declaration.name.symbol;
+            methods.put(name, new JvmFunction(method.declaration, closure, name == Symbol.INIT, method.body));
+        }
+
+        return new LoxClass(stmt.name.lexeme(), (LoxClass)superclass, methods);
+    }
+}
@@ -1,40 +1,84 @@
 package com.craftinginterpreters.lox;
 
-import static com.craftinginterpreters.lox.TokenType.EOF;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.List;
 
 
+// The command line: runs a script, or lines typed at the prompt, in one
+// LoxContext.
 public class Lox{
-    private static final Interpreter interpreter = new Interpreter();
+    static String engine = "tree";
+    static boolean optimize = true;
+    static boolean dumpAst = false;
     static boolean replMode = false;
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // Where parsed scripts are kept, with --cache; "" is a .loxcache
+    // directory beside each script.
+    static String cache = null;
+    private static LoxContext context;
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        int options = 0;
+        while (options < args.length && args[options].startsWith("--")) {
+            option(args[options++]);
+        }
+        context = new LoxEngine(engine, optimize).newContext();
+
+        if (args.length - options > 1) {
+            usage();
+        } else if (args.length - options == 1) {
+            runFile(args[options]);
         } else {
             replMode = true;
             runPrompt();
         }
     }
 
+    private static void usage(){
+        System.out.println("Usage: jlox [--engine=tree|closure|jvm|vm] [--no-optimize] [--dump-ast] [--cache[=dir]] [script]");
+        System.exit(64);
+    }
+
+    private static void option(String arg){
+        if (arg.equals("--no-optimize")) {
+            optimize = false;
+            return;
+        }
+        if (arg.equals("--dump-ast")) {
+            dumpAst = true;
+            return;
+        }
+        if (arg.equals("--cache")) {
+            cache = "";
+            return;
+        }
+        if (arg.startsWith("--cache=")) {
+            cache = arg.substring("--cache=".length());
+            if (!cache.isEmpty()) return;
+        }
+        if (arg.startsWith("--engine=")) {
+            engine = arg.substring("--engine=".length());
+            if (LoxEngine.ENGINES.contains(engine)) return;
+        }
+        usage();
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        String source = new String(bytes, Charset.defaultCharset());
-        run(source);
-        if(hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
+        // Scanned straight from the mapped UTF-8 bytes.
+        Path file = Paths.get(path);
+        Utf8Source source = Utf8Source.map(file);
+        if (cache == null) {
+            run(source);
+        } else {
+            Path directory = cache.isEmpty()
+                ? file.toAbsolutePath().resolveSibling(".loxcache")
+                : Paths.get(cache);
+            run(new AstCache(directory).prepare(context, source));
+        }
+        if(context.hadError) System.exit(65);
+        if(context.hadRuntimeError) System.exit(70);
     }
 
     private static void runPrompt() throws IOException {
@@ -54,57 +98,26 @@ public class Lox{
             if (line == null)
                 break;
             run(line);
-            hadError = false;
-        }
-    }
-
-    private static void run(String source) {
-        // Use a custom lexer to tokenize the input
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        // Expr expession = parser.parse();
-        List<Stmt> statements = parser.parse();
-
-        if (replMode) {
-            for(int i=0; i< statements.size(); i++){
-                if (statements.get(i) instanceof Stmt.Expression) {
-                    statements.set(i, new Stmt.Print(((Stmt.Expression) statements.get(i)).expression));
-                }
-            }
+            context.hadError = false;
         }
-
-        if(hadError) return;
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        
-        if(hadError) return;
-        
-        interpreter.interpret(statements);
     }
 
-    static void error(int line, String message){
-        report(line, "", message);
+    private static void run(CharSequence source) {
+        run(context.prepare(source, replMode));
     }
 
-    private static void report(int line, String where, String message){
-        System.err.println(
-            "[line "+line+"] Error " + where + ": " + message
-        );
-        hadError = true;
-    }
+    private static void run(List<Stmt> statements) {
+        if (statements == null) return;
 
-    static void error(Token token, String message){
-        if (token.type == EOF) {
-            report(token.line, " at end", message);
-        }else{
-            report(token.line, " at '" + token.lexeme + "'", message);
+        // Prints the tree that would run instead of running it.
+        if (dumpAst) {
+            AstPrinter printer = new AstPrinter();
+            for (Stmt statement : statements) {
+                System.out.println(printer.print(statement));
+            }
+            return;
         }
-    }
 
-    static void runtimeError(RuntimeError error){
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+        context.execute(statements);
     }
 }
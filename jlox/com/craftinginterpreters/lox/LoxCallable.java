@@ -1,9 +1,33 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 public interface LoxCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
     String toString();
+
+    // Fixed-arity entry points used by the interpreters once the argument
+    // count has been checked against arity(), so common calls need no
+    // argument list. They all end up in call(List) unless overridden.
+    default Object call(Interpreter interpreter, Object[] arguments){
+        return call(interpreter, Arrays.asList(arguments));
+    }
+
+    default Object call0(Interpreter interpreter){
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a){
+        return call(interpreter, new Object[]{a});
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b){
+        return call(interpreter, new Object[]{a, b});
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return call(interpreter, new Object[]{a, b, c});
+    }
 }
@@ -1,5 +1,6 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -7,12 +8,24 @@ import java.util.Map;
 public class LoxClass implements LoxCallable{
     final String name;
     final LoxClass superclass;
-    private final Map<String, LoxFunction> methods;
+    // Every method the class responds to, inherited ones included, built
+    // once here since a class never changes after it is declared.
+    private final Map<Symbol, LoxFunction> methods;
+    private final LoxFunction initializer;
+    // Root of the shapes of this class's instances, and how many fields the
+    // largest one has had, to size new instances.
+    final Shape emptyShape = new Shape();
+    int fieldCount = 0;
     
-    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods){
+    LoxClass(String name, LoxClass superclass, Map<Symbol, LoxFunction> methods){
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+
+        Map<Symbol, LoxFunction> flattened = new HashMap<>();
+        if (superclass != null) flattened.putAll(superclass.methods);
+        flattened.putAll(methods);
+        this.methods = Collections.unmodifiableMap(flattened);
+        this.initializer = flattened.get(Symbol.INIT);
     }
 
     @Override
@@ -22,30 +35,55 @@ public class LoxClass implements LoxCallable{
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        return call(interpreter, arguments.toArray());
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.callMethod(interpreter, instance, arguments);
         }
         return instance;
     }
 
-    public LoxFunction findMethod(String name){
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-        
-        if (superclass != null) {
-            return superclass.findMethod(name);
+    @Override
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            initializer.callMethod(interpreter, instance);
         }
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.callMethod(interpreter, instance, a);
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.callMethod(interpreter, instance, a, b);
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.callMethod(interpreter, instance, a, b, c);
+        return instance;
+    }
 
-        return null;
+    public LoxFunction findMethod(Symbol name){
+        return methods.get(name);
     }
 }
@@ -0,0 +1,219 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.EOF;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+// Everything one run of scripts owns: the globals, where 'print' and error
+// reports go, and whether an error happened. Scripts evaluated in the same
+// context see each other's globals, as lines typed at the prompt do. A
+// context is used by one thread at a time; separate contexts can run on
+// separate threads at once. A context can be reset and used again, so a
+// pool of them can serve the same compiled scripts over and over.
+public class LoxContext {
+    final LoxEngine engine;
+    final PrintStream out;
+    final PrintStream err;
+    final Interpreter interpreter;
+    private ClosureCompiler closureCompiler;
+    private JvmCompiler jvmCompiler;
+    private VM vm;
+    // Each CompiledScript run here, decoded into a tree of this context's
+    // own and in the form the engine runs it, so it is only compiled for
+    // the engine once. Weak, so scripts dropped by the embedder are not
+    // kept alive.
+    private final Map<CompiledScript, Program> programs = new WeakHashMap<>();
+    // While a compiled script loads, where the caches made for it go.
+    private List<PropertyCache> loading;
+    // Whether a script has run since the context was made or reset, so the
+    // globals may hold functions the next script's tree does not show.
+    private boolean ran = false;
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+
+    // A compiled script as this context runs it. Its inline caches hold
+    // shapes of the classes a run declared, which reset() lets go of.
+    private static final class Program {
+        final Runnable code;
+        final List<PropertyCache> caches;
+
+        Program(Runnable code, List<PropertyCache> caches){
+            this.code = code;
+            this.caches = caches;
+        }
+    }
+
+    LoxContext(LoxEngine engine, PrintStream out, PrintStream err){
+        this.engine = engine;
+        this.out = out;
+        this.err = err;
+        this.interpreter = new Interpreter(this);
+    }
+
+    // Runs a script. Returns false if it did not compile or stopped on a
+    // runtime error, which has been reported to err.
+    public boolean eval(CharSequence source){
+        hadError = false;
+        hadRuntimeError = false;
+        List<Stmt> statements = prepare(source, false);
+        if (statements == null) return false;
+        execute(statements);
+        return !hadRuntimeError;
+    }
+
+    // Scans, parses and resolves a script once so it can be run many times.
+    // Returns null if it did not compile; the errors have been reported to
+    // err. It may run after other scripts, so it is not optimized as the
+    // whole program.
+    public CompiledScript compile(CharSequence source){
+        hadError = false;
+        List<Stmt> statements = prepare(source, false, false);
+        return statements == null ? null : new CompiledScript(AstCache.encode(statements));
+    }
+
+    // Runs a compiled script with each binding defined as a global first.
+    // Numbers become Lox numbers; strings, booleans, null and values got
+    // from get() are passed as they are. Returns false if the script
+    // stopped on a runtime error.
+    public boolean run(CompiledScript script, Map<String, ?> bindings){
+        hadRuntimeError = false;
+        for (Map.Entry<String, ?> binding : bindings.entrySet()) {
+            Object value = binding.getValue();
+            if (value instanceof Number) value = ((Number) value).doubleValue();
+            interpreter.globals.define(Symbol.intern(binding.getKey()), value);
+        }
+
+        ran = true;
+        Program program = programs.get(script);
+        if (program == null) {
+            List<PropertyCache> caches = new ArrayList<>();
+            loading = caches;
+            try {
+                program = new Program(load(AstCache.decode(script.tree, caches)), caches);
+            } finally {
+                loading = null;
+            }
+            programs.put(script, program);
+        }
+        program.code.run();
+        return !hadRuntimeError;
+    }
+
+    // The value of a global, or null if there is none. The Hoister's
+    // temporaries are globals at the top level of a script, but they are
+    // not the script's, so they read as none.
+    public Object get(String name){
+        if (Hoister.isTemp(name)) return null;
+        return interpreter.globals.get(Symbol.intern(name));
+    }
+
+    // Forgets every global defined by the scripts run so far, so the next
+    // one starts as if in a new context. Compiled scripts stay loaded, with
+    // their inline caches emptied since the classes they saw are gone.
+    public void reset(){
+        interpreter.resetGlobals();
+        for (Program program : programs.values()) {
+            for (PropertyCache cache : program.caches) cache.clear();
+        }
+        ran = false;
+        hadError = false;
+        hadRuntimeError = false;
+    }
+
+    public boolean hadError(){
+        return hadError;
+    }
+
+    public boolean hadRuntimeError(){
+        return hadRuntimeError;
+    }
+
+    // An inline cache for a site the closure engine compiles.
+    PropertyCache newCache(){
+        PropertyCache cache = new PropertyCache();
+        if (loading != null) loading.add(cache);
+        return cache;
+    }
+
+    // The tree the engine runs for a script, or null if it has an error.
+    // At the prompt a bare expression statement prints its value.
+    List<Stmt> prepare(CharSequence source, boolean repl){
+        return prepare(source, repl, !ran);
+    }
+
+    // wholeProgram says no code but this script's can be running, which
+    // lets the Hoister see every function a call could reach.
+    List<Stmt> prepare(CharSequence source, boolean repl, boolean wholeProgram){
+        // The Parser scans the source as it goes.
+        List<Stmt> statements = new Parser(source, this).parse();
+
+        if (repl) {
+            for(int i=0; i< statements.size(); i++){
+                if (statements.get(i) instanceof Stmt.Expression) {
+                    statements.set(i, new Stmt.Print(((Stmt.Expression) statements.get(i)).expression));
+                }
+            }
+        }
+
+        if(hadError) return null;
+
+        new Resolver(this).resolve(statements);
+
+        if(hadError) return null;
+
+        if (engine.optimize) {
+            statements = new Optimizer().optimize(statements);
+            statements = new Hoister(this, wholeProgram).hoist(statements);
+        }
+        return statements;
+    }
+
+    void execute(List<Stmt> statements){
+        ran = true;
+        load(statements).run();
+    }
+
+    // Compiles a tree for the engine, if it is one that compiles.
+    private Runnable load(List<Stmt> statements){
+        if (engine.engine.equals("closure")) {
+            if (closureCompiler == null) closureCompiler = new ClosureCompiler(interpreter);
+            return closureCompiler.load(statements);
+        } else if (engine.engine.equals("jvm")) {
+            if (jvmCompiler == null) jvmCompiler = new JvmCompiler(interpreter);
+            return jvmCompiler.load(statements);
+        } else if (engine.engine.equals("vm")) {
+            if (vm == null) vm = new VM(interpreter);
+            return vm.load(statements);
+        } else {
+            return () -> interpreter.interpret(statements);
+        }
+    }
+
+    void error(int line, String message){
+        report(line, "", message);
+    }
+
+    private void report(int line, String where, String message){
+        err.println(
+            "[line "+line+"] Error " + where + ": " + message
+        );
+        hadError = true;
+    }
+
+    void error(Token token, String message){
+        if (token.type == EOF) {
+            report(token.line, " at end", message);
+        }else{
+            report(token.line, " at '" + token.lexeme() + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error){
+        err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+}
@@ -0,0 +1,38 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+
+// The way into jlox for a program that embeds it. An engine only holds
+// settings, fixed when it is made, so one can be shared by any number of
+// threads; each script runs in a LoxContext of its own, which shares no
+// state with any other context.
+public class LoxEngine {
+    static final List<String> ENGINES = List.of("tree", "closure", "jvm", "vm");
+
+    final String engine;
+    final boolean optimize;
+
+    public LoxEngine(){
+        this("tree", true);
+    }
+
+    // engine is one of "tree", "closure", "jvm" and "vm", as for
+    // --engine; optimize runs the Optimizer and Hoister first.
+    public LoxEngine(String engine, boolean optimize){
+        if (!ENGINES.contains(engine)) {
+            throw new IllegalArgumentException("Unknown engine '" + engine + "'.");
+        }
+        this.engine = engine;
+        this.optimize = optimize;
+    }
+
+    public LoxContext newContext(){
+        return newContext(System.out, System.err);
+    }
+
+    // A context that prints to out and reports errors to err.
+    public LoxContext newContext(PrintStream out, PrintStream err){
+        return new LoxContext(this, out, err);
+    }
+}
@@ -3,14 +3,22 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final Boolean isInitializer;
+    final Stmt.Function declaration;
+    final Environment closure;
+    final Boolean isInitializer;
+    // The instance a method was bound to when it is used as a value, or
+    // null. Method calls pass their receiver to callMethod directly.
+    final LoxInstance receiver;
 
     LoxFunction(Stmt.Function declaration, Environment closure, Boolean isInitializer){
+        this(declaration, closure, isInitializer, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, Boolean isInitializer, LoxInstance receiver){
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
     }
 
     @Override
@@ -20,35 +28,107 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
-        }
-        try {
-            interpreter.executeBlock(this.declaration.body, environment);
-        } catch (LoxReturn returnValue) {
-            if (isInitializer) {
-                return closure.getAt(0, "this");    
-            }
+        return callMethod(interpreter, receiver, arguments.toArray());
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return callMethod(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return callMethod(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return callMethod(interpreter, receiver, a);
+    }
 
-            return returnValue.value;
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return callMethod(interpreter, receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return callMethod(interpreter, receiver, a, b, c);
+    }
+
+    // The frame of a call: slot 0 holds the receiver ('this' in methods)
+    // and the parameters follow from slot 1, sized by the Resolver.
+    Environment frame(LoxInstance receiver){
+        Environment environment = new Environment(closure, declaration.frameSize);
+        environment.define(0, receiver);
+        return environment;
+    }
+
+    Object callMethod(Interpreter interpreter, LoxInstance receiver) {
+        return run(interpreter, frame(receiver));
+    }
+
+    Object callMethod(Interpreter interpreter, LoxInstance receiver, Object a) {
+        Environment environment = frame(receiver);
+        environment.define(1, a);
+        return run(interpreter, environment);
+    }
+
+    Object callMethod(Interpreter interpreter, LoxInstance receiver, Object a, Object b) {
+        Environment environment = frame(receiver);
+        environment.define(1, a);
+        environment.define(2, b);
+        return run(interpreter, environment);
+    }
+
+    Object callMethod(Interpreter interpreter, LoxInstance receiver, Object a, Object b, Object c) {
+        Environment environment = frame(receiver);
+        environment.define(1, a);
+        environment.define(2, b);
+        environment.define(3, c);
+        return run(interpreter, environment);
+    }
+
+    Object callMethod(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        Environment environment = frame(receiver);
+        for (int i = 0; i < arguments.length; i++) {
+            environment.define(i + 1, arguments[i]);
         }
+        return run(interpreter, environment);
+    }
 
-        if (isInitializer) {
-            return closure.getAt(0, "this");
+    // Executes the body in a prepared frame. The other engines override
+    // this with their compiled bodies. A tail call out of the body comes
+    // back as Interpreter.TAIL_CALL and runs in this loop, so tail
+    // recursion uses no Java stack.
+    Object run(Interpreter interpreter, Environment environment) {
+        LoxFunction function = this;
+        while (true) {
+            Interpreter.Completion completion = interpreter.executeBlock(function.declaration.body, environment);
+            if (function.isInitializer) {
+                return environment.getAt(0, 0);
+            }
+            if (completion != Interpreter.Completion.RETURN) {
+                return null;
+            }
+
+            Object value = interpreter.takeReturnValue();
+            if (value != Interpreter.TAIL_CALL) {
+                return value;
+            }
+            function = interpreter.tailFunction;
+            environment = interpreter.tailFrame;
+            interpreter.tailFunction = null;
+            interpreter.tailFrame = null;
         }
-        
-        return null;
     }
 
     public LoxFunction bind(LoxInstance instance ){
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, closure, isInitializer, instance);
     }
 
     @Override
     public String toString(){
-        return "<fn " + declaration.name.lexeme + " >";
+        return "<fn " + declaration.name.lexeme() + " >";
     }
 }
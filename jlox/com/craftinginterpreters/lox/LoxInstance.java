@@ -1,29 +1,50 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+// Fields live in an array laid out by the instance's Shape, which changes
+// as fields are added. Property accesses in the source go through a
+// PropertyCache; get and set here are the uncached lookups.
 public class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+    Shape shape;
+    Object[] fields;
     
     LoxInstance(LoxClass klass){
         this.klass = klass;
+        this.shape = klass.emptyShape;
+        this.fields = new Object[klass.fieldCount];
     }
 
     public Object get(Token name){
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme); 
+        int slot = shape.slotOf(name.symbol);
+        if (slot >= 0) {
+            return fields[slot]; 
         }
 
-        LoxFunction method = klass.findMethod(name.lexeme);
+        LoxFunction method = klass.findMethod(name.symbol);
         if (method != null) return method.bind(this);
         
-        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
     }
 
     public void set(Token name, Object value){
-        fields.put(name.lexeme, value);
+        int slot = shape.slotOf(name.symbol);
+        if (slot < 0) {
+            slot = shape.size;
+            grow(shape.with(name.symbol));
+        }
+        fields[slot] = value;
+    }
+
+    // Moves to a shape with one more field. The class remembers the largest
+    // instance seen so later instances are allocated at that size.
+    void grow(Shape next){
+        shape = next;
+        if (next.size > fields.length) {
+            fields = Arrays.copyOf(fields, next.size);
+            if (next.size > klass.fieldCount) klass.fieldCount = next.size;
+        }
     }
 
     @Override
@@ -1,9 +0,0 @@
-package com.craftinginterpreters.lox;
-
-public class LoxReturn extends RuntimeException {
-    final Object value;
-
-    LoxReturn(Object value){
-        this.value = value;
-    }
-}
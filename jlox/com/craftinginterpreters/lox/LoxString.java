@@ -0,0 +1,94 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// A string made by '+': a rope that only links its two halves, so building
+// a string piece by piece costs time linear in its final length. The text
+// is put together the first time it is needed (to print, compare or hash
+// the string) and kept, and the halves are let go then.
+//
+// Lox strings are either a java.lang.String or a LoxString. Everything that
+// looks at their text goes through toString().
+final class LoxString {
+    // Below this the halves are simply copied, a rope would not pay off.
+    private static final int MIN_ROPE_LENGTH = 32;
+
+    private final int length;
+    // Each a String or a LoxString; null once flattened.
+    private Object left;
+    private Object right;
+    private String text;
+
+    private LoxString(Object left, Object right, int length){
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    static boolean isString(Object value){
+        return value instanceof String || value instanceof LoxString;
+    }
+
+    static Object concat(Object left, Object right){
+        int length = length(left) + length(right);
+        if (length < MIN_ROPE_LENGTH) return left.toString() + right.toString();
+        return new LoxString(shallow(left), shallow(right), length);
+    }
+
+    private static int length(Object value){
+        if (value instanceof LoxString) return ((LoxString) value).length;
+        return ((String) value).length();
+    }
+
+    // A flattened rope is linked by its text, which keeps the tree small.
+    private static Object shallow(Object value){
+        if (value instanceof LoxString && ((LoxString) value).text != null) {
+            return ((LoxString) value).text;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString(){
+        if (text != null) return text;
+
+        // Iterative, since a string built in a loop is a very deep tree.
+        StringBuilder builder = new StringBuilder(length);
+        Deque<Object> pieces = new ArrayDeque<>();
+        pieces.push(right);
+        pieces.push(left);
+        while (!pieces.isEmpty()) {
+            Object piece = pieces.pop();
+            if (piece instanceof String) {
+                builder.append((String) piece);
+                continue;
+            }
+
+            LoxString rope = (LoxString) piece;
+            if (rope.text != null) {
+                builder.append(rope.text);
+            } else {
+                pieces.push(rope.right);
+                pieces.push(rope.left);
+            }
+        }
+
+        text = builder.toString();
+        left = null;
+        right = null;
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object other){
+        if (this == other) return true;
+        if (!(other instanceof LoxString)) return false;
+        return length == ((LoxString) other).length && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode(){
+        return toString().hashCode();
+    }
+}
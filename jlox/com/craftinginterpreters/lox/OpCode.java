@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+// Instructions of the bytecode VM, following clox's OpCode enum. They are
+// plain byte constants so the dispatch loop in VM can switch on the code
+// array directly. Operands are one byte for argument counts and two bytes
+// (big-endian) for everything else.
+final class OpCode {
+    static final byte OP_CONSTANT = 0;          // index
+    static final byte OP_NIL = 1;
+    static final byte OP_TRUE = 2;
+    static final byte OP_FALSE = 3;
+    static final byte OP_POP = 4;
+    static final byte OP_GET_LOCAL = 5;         // slot
+    static final byte OP_SET_LOCAL = 6;         // slot
+    static final byte OP_DEFINE_LOCAL = 7;      // slot
+    static final byte OP_GET_GLOBAL = 8;        // name token
+    static final byte OP_SET_GLOBAL = 9;        // name token
+    static final byte OP_DEFINE_GLOBAL = 10;    // name
+    static final byte OP_GET_UPVALUE = 11;      // index
+    static final byte OP_SET_UPVALUE = 12;      // index
+    static final byte OP_CLOSE_UPVALUE = 13;    // slot
+    static final byte OP_GET_PROPERTY = 14;     // name
+    static final byte OP_CHECK_FIELDS = 15;
+    static final byte OP_SET_PROPERTY = 16;     // name
+    static final byte OP_GET_METHOD = 17;       // name
+    static final byte OP_GET_SUPER = 18;        // name
+    static final byte OP_GET_SUPER_METHOD = 19; // name
+    static final byte OP_EQUAL = 20;
+    static final byte OP_NOT_EQUAL = 21;
+    static final byte OP_GREATER = 22;
+    static final byte OP_GREATER_EQUAL = 23;
+    static final byte OP_LESS = 24;
+    static final byte OP_LESS_EQUAL = 25;
+    static final byte OP_ADD = 26;
+    static final byte OP_SUBTRACT = 27;
+    static final byte OP_MULTIPLY = 28;
+    static final byte OP_DIVIDE = 29;
+    static final byte OP_NOT = 30;
+    static final byte OP_NEGATE = 31;
+    static final byte OP_PRINT = 32;
+    static final byte OP_JUMP = 33;             // forward offset
+    static final byte OP_JUMP_IF_FALSE = 34;    // forward offset, keeps the condition
+    static final byte OP_POP_JUMP_IF_FALSE = 35;// forward offset, pops the condition
+    static final byte OP_LOOP = 36;             // backward offset
+    static final byte OP_CALL = 37;             // argument count
+    static final byte OP_INVOKE = 38;           // argument count, after OP_GET_METHOD
+    static final byte OP_CLOSURE = 39;          // function, then (isLocal, index) per upvalue
+    static final byte OP_RETURN = 40;
+    static final byte OP_CLASS = 41;            // name
+    static final byte OP_CHECK_SUPERCLASS = 42;
+    static final byte OP_INHERIT = 43;
+    static final byte OP_METHOD = 44;           // name
+    static final byte OP_RETHROW = 45;
+
+    static final String[] NAMES = {
+        "OP_CONSTANT", "OP_NIL", "OP_TRUE", "OP_FALSE", "OP_POP",
+        "OP_GET_LOCAL", "OP_SET_LOCAL", "OP_DEFINE_LOCAL",
+        "OP_GET_GLOBAL", "OP_SET_GLOBAL", "OP_DEFINE_GLOBAL",
+        "OP_GET_UPVALUE", "OP_SET_UPVALUE", "OP_CLOSE_UPVALUE",
+        "OP_GET_PROPERTY", "OP_CHECK_FIELDS", "OP_SET_PROPERTY", "OP_GET_METHOD",
+        "OP_GET_SUPER", "OP_GET_SUPER_METHOD",
+        "OP_EQUAL", "OP_NOT_EQUAL", "OP_GREATER", "OP_GREATER_EQUAL", "OP_LESS", "OP_LESS_EQUAL",
+        "OP_ADD", "OP_SUBTRACT", "OP_MULTIPLY", "OP_DIVIDE", "OP_NOT", "OP_NEGATE",
+        "OP_PRINT", "OP_JUMP", "OP_JUMP_IF_FALSE", "OP_POP_JUMP_IF_FALSE", "OP_LOOP",
+        "OP_CALL", "OP_INVOKE", "OP_CLOSURE", "OP_RETURN",
+        "OP_CLASS", "OP_CHECK_SUPERCLASS", "OP_INHERIT", "OP_METHOD", "OP_RETHROW",
+    };
+
+    private OpCode(){}
+}
@@ -0,0 +1,445 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.BANG;
+import static com.craftinginterpreters.lox.TokenType.MINUS;
+import static com.craftinginterpreters.lox.TokenType.OR;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+import com.craftinginterpreters.lox.Stmt.Block;
+import com.craftinginterpreters.lox.Stmt.Break;
+import com.craftinginterpreters.lox.Stmt.Class;
+import com.craftinginterpreters.lox.Stmt.Continue;
+import com.craftinginterpreters.lox.Stmt.Expression;
+import com.craftinginterpreters.lox.Stmt.For;
+import com.craftinginterpreters.lox.Stmt.Function;
+import com.craftinginterpreters.lox.Stmt.If;
+import com.craftinginterpreters.lox.Stmt.Print;
+import com.craftinginterpreters.lox.Stmt.Return;
+import com.craftinginterpreters.lox.Stmt.Var;
+import com.craftinginterpreters.lox.Stmt.While;
+
+// Rewrites the resolved tree before it is run: folds constant expressions,
+// drops branches and loops whose condition is constant and statements after
+// a return, break or continue, and removes operations that cannot change a
+// value. It runs after the Resolver so every error is still reported, and
+// copies the slots the Resolver assigned onto the nodes it rebuilds. Nodes
+// whose children did not change are kept as they are.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    List<Stmt> optimize(List<Stmt> statements){
+        return sequence(statements);
+    }
+
+    private Expr optimize(Expr expr){
+        return expr.accept(this);
+    }
+
+    private Stmt optimize(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    // A statement list without the statements that do nothing or can never
+    // run. Returns the same list when nothing was removed.
+    private List<Stmt> sequence(List<Stmt> statements){
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt optimized = optimize(statement);
+            if (isEmpty(optimized)) {
+                changed = true;
+            } else {
+                result.add(optimized);
+                changed |= optimized != statement;
+            }
+
+            if (terminates(optimized)) {
+                changed |= result.size() < statements.size();
+                break;
+            }
+        }
+        return changed ? result : statements;
+    }
+
+    // Where a statement is required, an empty block stands for one that was
+    // removed.
+    private static Stmt nothing(){
+        Block block = new Block(Collections.emptyList());
+        block.frameSize = 0;
+        return block;
+    }
+
+    private static boolean isEmpty(Stmt stmt){
+        if (stmt instanceof Block) return ((Block) stmt).statements.isEmpty();
+        if (stmt instanceof Expression) return ((Expression) stmt).expression instanceof Literal;
+        return false;
+    }
+
+    // Whether control never reaches the statement after this one.
+    private static boolean terminates(Stmt stmt){
+        if (stmt instanceof Return || stmt instanceof Break || stmt instanceof Continue) return true;
+        if (stmt instanceof Block) {
+            List<Stmt> statements = ((Block) stmt).statements;
+            return !statements.isEmpty() && terminates(statements.get(statements.size() - 1));
+        }
+        if (stmt instanceof If) {
+            If branch = (If) stmt;
+            return branch.elseBranch != null && terminates(branch.thenBranch) && terminates(branch.elseBranch);
+        }
+        return false;
+    }
+
+    // Literals the Parser produces for source values. The NIL token type
+    // it uses for empty for-loop clauses is not one of them.
+    private static boolean isConstant(Expr expr){
+        if (!(expr instanceof Literal)) return false;
+        Object value = ((Literal) expr).value;
+        return value == null || value instanceof Boolean || value instanceof Double || value instanceof String;
+    }
+
+    private static Object valueOf(Expr expr){
+        return ((Literal) expr).value;
+    }
+
+    // Expressions that always produce a number when they produce anything.
+    private static boolean isNumeric(Expr expr){
+        if (expr instanceof Literal) return valueOf(expr) instanceof Double;
+        if (expr instanceof Unary) return ((Unary) expr).operator.type == MINUS;
+        if (expr instanceof Binary) {
+            Binary binary = (Binary) expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case SLASH:
+                case STAR:
+                    return true;
+                case PLUS:
+                    return isNumeric(binary.left) && isNumeric(binary.right);
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBoolean(Expr expr){
+        if (expr instanceof Literal) return valueOf(expr) instanceof Boolean;
+        if (expr instanceof Unary) return ((Unary) expr).operator.type == BANG;
+        if (expr instanceof Binary) {
+            switch (((Binary) expr).operator.type) {
+                case BANG_EQUAL:
+                case EQUAL_EQUAL:
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNumber(Expr expr, double number){
+        return isConstant(expr) && valueOf(expr) instanceof Double && (double)valueOf(expr) == number;
+    }
+
+    // Only truthiness matters in a condition, so '!!x' is just 'x'.
+    private Expr condition(Expr expr){
+        Expr condition = optimize(expr);
+        while (condition instanceof Unary && ((Unary) condition).operator.type == BANG
+                && ((Unary) condition).right instanceof Unary
+                && ((Unary) ((Unary) condition).right).operator.type == BANG) {
+            condition = ((Unary) ((Unary) condition).right).right;
+        }
+        return condition;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Class stmt) {
+        List<Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for (Function method : stmt.methods) {
+            Function optimized = (Function) optimize(method);
+            methods.add(optimized);
+            changed |= optimized != method;
+        }
+        if (!changed) return stmt;
+
+        Class klass = new Class(stmt.name, stmt.superclass, methods);
+        klass.slot = stmt.slot;
+        return klass;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Block stmt) {
+        List<Stmt> statements = sequence(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+        Block block = new Block(statements);
+        block.frameSize = stmt.frameSize;
+        return block;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Function stmt) {
+        List<Stmt> body = sequence(stmt.body);
+        if (body == stmt.body) return stmt;
+
+        Function function = new Function(stmt.name, stmt.params, body);
+        function.slot = stmt.slot;
+        function.frameSize = stmt.frameSize;
+        return function;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Return stmt) {
+        if (stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+        return new Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Print(expression);
+    }
+
+    @Override
+    public Stmt visitIfStmt(If stmt) {
+        Expr condition = condition(stmt.Condition);
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+
+        if (isConstant(condition)) {
+            if (Interpreter.isTruthy(valueOf(condition))) return thenBranch;
+            return elseBranch == null ? nothing() : elseBranch;
+        }
+
+        if (condition == stmt.Condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Var stmt) {
+        if (stmt.initializer == null) return stmt;
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+
+        Var var = new Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(While stmt) {
+        Expr condition = condition(stmt.condition);
+        if (isConstant(condition) && !Interpreter.isTruthy(valueOf(condition))) return nothing();
+
+        Stmt body = optimize(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new While(condition, body);
+    }
+
+    @Override
+    public Stmt visitForStmt(For stmt) {
+        // The initializer declares into the enclosing scope, so it can stand
+        // on its own when the loop never runs.
+        Stmt initializer = optimize(stmt.initializer);
+        Expr condition = condition(stmt.condition);
+        if (isConstant(condition) && !Interpreter.isTruthy(valueOf(condition))) {
+            return isEmpty(initializer) ? nothing() : initializer;
+        }
+
+        Expr increment = optimize(stmt.increment);
+        Stmt body = optimize(stmt.body);
+        if (initializer == stmt.initializer && condition == stmt.condition
+                && increment == stmt.increment && body == stmt.body) {
+            return stmt;
+        }
+        return new For(initializer, condition, increment, body);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Assign assign = new Assign(expr.name, value);
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (isConstant(left)) {
+            boolean truthy = Interpreter.isTruthy(valueOf(left));
+            if (expr.operator.type == OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // Folding uses the interpreter's own operators. An operation that
+        // would fail is left in place to fail when it runs.
+        if (isConstant(left) && isConstant(right)) {
+            try {
+                Object value = Interpreter.binary(expr.operator, valueOf(left), valueOf(right));
+                if (value instanceof LoxString) value = value.toString();
+                return new Literal(value);
+            } catch (RuntimeError error) {
+                // Not foldable.
+            }
+        }
+
+        // Identities that hold for every number, negative zero included.
+        // The other operand must be known to be a number, since these
+        // operators fail on anything else.
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+                if (isNumber(right, expr.operator.type == MINUS ? 0 : 1) && isNumeric(left)) return left;
+                break;
+            case STAR:
+                if (isNumber(right, 1) && isNumeric(left)) return left;
+                if (isNumber(left, 1) && isNumeric(right)) return right;
+                break;
+            default:
+                break;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            arguments.add(optimized);
+            changed |= optimized != argument;
+        }
+        if (!changed) return expr;
+
+        Call call = new Call(callee, expr.paren, arguments);
+        call.isTailCall = expr.isTailCall;
+        return call;
+    }
+
+    @Override
+    public Expr visitGetExpr(Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Get(object, expr.name);
+    }
+
+    // Grouping only matters to the Parser.
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (expr.operator.type == BANG) {
+            if (isConstant(right)) return new Literal(!Interpreter.isTruthy(valueOf(right)));
+            if (right instanceof Unary && ((Unary) right).operator.type == BANG
+                    && isBoolean(((Unary) right).right)) {
+                return ((Unary) right).right;
+            }
+        } else if (expr.operator.type == MINUS) {
+            if (isConstant(right) && valueOf(right) instanceof Double) return new Literal(-(double)valueOf(right));
+            if (right instanceof Unary && ((Unary) right).operator.type == MINUS
+                    && isNumeric(((Unary) right).right)) {
+                return ((Unary) right).right;
+            }
+        }
+
+        if (right == expr.right) return expr;
+        return new Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitTempExpr(Temp expr) {
+        return expr;
+    }
+}
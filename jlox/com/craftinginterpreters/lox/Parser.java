@@ -78,11 +78,32 @@ import static com.craftinginterpreters.lox.TokenType.*;
 
 public class Parser {
     private static class ParseError extends RuntimeException{}
-    public final List<Token> tokens;
-    public int current = 0;
-
-    Parser(List<Token> tokens){
+    // How many tokens are scanned at a time when parsing straight from
+    // the source.
+    private static final int WINDOW = 1024;
+
+    // The Parser reads token types from the buffer and makes a Token only
+    // for one it keeps or reports. With a scanner, the buffer is a window
+    // that is scanned again once the Parser reaches its end.
+    private final TokenBuffer tokens;
+    private final Scanner scanner;
+    private final LoxContext context;
+    private int current = 0;
+    private int previous = -1;
+    // The Token for previous, once made.
+    private Token previousToken;
+
+    Parser(CharSequence source, LoxContext context){
+        this.tokens = new TokenBuffer(source);
+        this.scanner = new Scanner(source, context);
+        this.context = context;
+        scanner.scan(tokens, WINDOW);
+    }
+
+    Parser(TokenBuffer tokens, LoxContext context){
         this.tokens = tokens;
+        this.scanner = null;
+        this.context = context;
     }
     
     List<Stmt> parse(){
@@ -427,7 +448,7 @@ public class Parser {
         if (match(NIL)) return new Expr.Literal(null);
         
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(literal());
         }
         if (match(IDENTIFIER)) {
             return new Expr.Variable(previous());
@@ -454,14 +475,34 @@ public class Parser {
     }
 
     private Token advance(){
-        if(!isAtEnd()) current++;
+        if(!isAtEnd()) step();
         return previous();
     }
 
+    private void step(){
+        previous = current++;
+        previousToken = null;
+        if (current == tokens.size() && scanner != null) {
+            // The window is used up; keep the token just consumed before
+            // scanning the next one over it.
+            previousToken = tokens.token(previous);
+            tokens.clear();
+            scanner.scan(tokens, WINDOW);
+            current = 0;
+            previous = -1;
+        }
+    }
+
+    // The value of the literal just consumed.
+    private Object literal(){
+        if (previousToken != null) return previousToken.literal;
+        return tokens.value(previous);
+    }
+
     private boolean match(TokenType... types){
         for (TokenType tokenType : types) {
             if (check(tokenType)) {
-                advance();
+                step();
                 return true;
             }   
         }
@@ -477,23 +518,24 @@ public class Parser {
 
     private boolean check(TokenType type){
         if(isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
     private boolean isAtEnd(){
-        return peek().type == TokenType.EOF;   
+        return tokens.type(current) == TokenType.EOF;   
     }
 
     private Token peek(){
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous(){
-        return tokens.get(current-1);
+        if (previousToken == null) previousToken = tokens.token(previous);
+        return previousToken;
     }
 
     private ParseError error(Token token, String message){
-        Lox.error(token, message);
+        context.error(token, message);
         return new ParseError();
     }
 
@@ -505,7 +547,7 @@ public class Parser {
                 return;
             }
             
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUN:
                 case VAR:
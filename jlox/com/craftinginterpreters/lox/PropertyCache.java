@@ -0,0 +1,122 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// Inline cache for one property access in the source. It remembers, for
+// each instance shape seen there, where the property was found, so later
+// accesses on the same shape skip the lookups. Up to MAX_ENTRIES shapes
+// are kept; past that a new shape replaces the oldest entry, so a site
+// whose shapes change (a class declared again, say) caches the new ones
+// and lets go of the old Shapes and methods.
+//
+// Entries are immutable and the array is filled before it is published
+// through a volatile field, so a reader on another thread sees either the
+// old array or the whole new one.
+final class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private static final class Entry {
+        final Shape shape;
+        // The field's slot, or -1 when a get found a method.
+        final int slot;
+        final LoxFunction method;
+        // For a set that adds the field: the instance's shape afterwards.
+        final Shape next;
+
+        Entry(Shape shape, int slot, LoxFunction method, Shape next){
+            this.shape = shape;
+            this.slot = slot;
+            this.method = method;
+            this.next = next;
+        }
+    }
+
+    private volatile Entry[] entries = EMPTY;
+
+    Object get(LoxInstance instance, Token name){
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry.shape == shape) {
+                if (entry.slot >= 0) return instance.fields[entry.slot];
+                return entry.method.bind(instance);
+            }
+        }
+
+        int slot = shape.slotOf(name.symbol);
+        if (slot >= 0) {
+            add(new Entry(shape, slot, null, null));
+            return instance.fields[slot];
+        }
+
+        LoxFunction method = instance.klass.findMethod(name.symbol);
+        if (method != null) {
+            add(new Entry(shape, -1, method, null));
+            return method.bind(instance);
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme() + "'.");
+    }
+
+    // For a call through this site: the method the property names, or null
+    // when it is a field (or undefined) and has to be read with get().
+    LoxFunction method(LoxInstance instance, Token name){
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry.shape == shape) return entry.method;
+        }
+
+        int slot = shape.slotOf(name.symbol);
+        if (slot >= 0) {
+            add(new Entry(shape, slot, null, null));
+            return null;
+        }
+
+        LoxFunction method = instance.klass.findMethod(name.symbol);
+        if (method != null) add(new Entry(shape, -1, method, null));
+        return method;
+    }
+
+    void set(LoxInstance instance, Token name, Object value){
+        Shape shape = instance.shape;
+        for (Entry entry : entries) {
+            if (entry.shape == shape) {
+                if (entry.next != null) instance.grow(entry.next);
+                instance.fields[entry.slot] = value;
+                return;
+            }
+        }
+
+        int slot = shape.slotOf(name.symbol);
+        if (slot >= 0) {
+            add(new Entry(shape, slot, null, null));
+        } else {
+            Shape next = shape.with(name.symbol);
+            slot = shape.size;
+            add(new Entry(shape, slot, null, next));
+            instance.grow(next);
+        }
+        instance.fields[slot] = value;
+    }
+
+    // Forgets every shape, for when the classes they belong to are gone.
+    void clear(){
+        entries = EMPTY;
+    }
+
+    // Appends the entry, dropping the oldest one when the cache is full.
+    // Two threads adding at once can lose one of the entries, which only
+    // costs a later lookup.
+    private void add(Entry entry){
+        Entry[] current = entries;
+        Entry[] updated;
+        if (current.length < MAX_ENTRIES) {
+            updated = Arrays.copyOf(current, current.length + 1);
+        } else {
+            updated = new Entry[MAX_ENTRIES];
+            System.arraycopy(current, 1, updated, 0, MAX_ENTRIES - 1);
+        }
+        updated[updated.length - 1] = entry;
+        entries = updated;
+    }
+}
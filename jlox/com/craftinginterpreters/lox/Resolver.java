@@ -14,6 +14,7 @@ import com.craftinginterpreters.lox.Expr.Literal;
 import com.craftinginterpreters.lox.Expr.Logical;
 import com.craftinginterpreters.lox.Expr.Set;
 import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
 import com.craftinginterpreters.lox.Expr.This;
 import com.craftinginterpreters.lox.Expr.Unary;
 import com.craftinginterpreters.lox.Expr.Variable;
@@ -31,8 +32,18 @@ import com.craftinginterpreters.lox.Stmt.Var;
 import com.craftinginterpreters.lox.Stmt.While;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final LoxContext context;
+    private final Stack<Map<Symbol, Local>> scopes = new Stack<>();
+
+    private static class Local {
+        final int slot;
+        boolean defined;
+
+        Local(int slot, boolean defined){
+            this.slot = slot;
+            this.defined = defined;
+        }
+    }
 
     private enum FunctionType {
         NONE,
@@ -47,6 +58,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         LOOP
     }
     private LoopType currentLoop = LoopType.NONE;
+    // For loops open in the current function. Their increment still runs
+    // after a return from the body, so no call in there is a tail call.
+    private int forLoops = 0;
 
     private enum ClassType {
         NONE,
@@ -55,8 +69,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
     private ClassType currentClass = ClassType.NONE;
 
-    Resolver(Interpreter interpreter){
-        this.interpreter = interpreter;
+    // Slot of the local found by the last resolveLocal() call.
+    private int resolvedSlot;
+
+    Resolver(LoxContext context){
+        this.context = context;
     }
 
     public void resolve(List<Stmt> statements){
@@ -70,11 +87,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
         
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
-        if (stmt.superclass != null && ( stmt.name.lexeme.equals(stmt.superclass.name.lexeme) )) {
-            Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+        if (stmt.superclass != null && ( stmt.name.symbol == stmt.superclass.name.symbol )) {
+            context.error(stmt.superclass.name, "A class can't inherit from itself.");
         }
 
         if (stmt.superclass != null) {
@@ -84,22 +101,17 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            scopes.peek().put(Symbol.SUPER, new Local(0, true));
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for ( Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.name.lexeme.equals("init")) {
+            if (method.name.symbol == Symbol.INIT) {
                 declaration = FunctionType.INITIALIZER;
             }
             resolveFunction(method, declaration);
         }
 
-        endScope();
-
         if(stmt.superclass != null) endScope();
 
         currentClass = enclosingClass;
@@ -111,6 +123,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBlockStmt(Block stmt) {
         beginScope();
         resolve(stmt.statements);
+        stmt.frameSize = scopes.peek().size();
         endScope();
         return null;
     }
@@ -123,7 +136,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -133,13 +146,16 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can`t return from top-level code.");
+            context.error(stmt.keyword, "Can`t return from top-level code.");
         }
         if(stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword,"Can't return value from an initializer.");
+                context.error(stmt.keyword,"Can't return value from an initializer.");
             }
             resolve(stmt.value);
+            if (stmt.value instanceof Expr.Call && forLoops == 0) {
+                ((Expr.Call) stmt.value).isTailCall = true;
+            }
         }
 
         return null;
@@ -161,7 +177,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -184,7 +200,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitBreakStmt(Break stmt) {
         if (currentLoop == LoopType.NONE) {
-            Lox.error(stmt.keyword, "'break' statement must be inside loop.");
+            context.error(stmt.keyword, "'break' statement must be inside loop.");
         }
         return null;
     }
@@ -192,7 +208,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitContinueStmt(Continue stmt) {
         if (currentLoop == LoopType.NONE) {
-            Lox.error(stmt.keyword, "'continue' statement must be inside loop.");
+            context.error(stmt.keyword, "'continue' statement must be inside loop.");
         }
         return null;
     }
@@ -200,7 +216,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = resolvedSlot;
 
         return null;
     }
@@ -215,21 +232,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            context.error(expr.keyword, "Can't use 'super' outside of a class.");
         }else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in class with no superclass.");
+            context.error(expr.keyword, "Can't use 'super' in class with no superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
+        expr.slot = resolvedSlot;
         return null;
     }
 
     @Override
     public Void visitThisExpr(This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            context.error(expr.keyword, "Can't use 'this' outside of a class.");
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
+        expr.slot = resolvedSlot;
         return null;
     }
 
@@ -281,10 +300,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+        if (!scopes.isEmpty() && scopes.peek().containsKey(expr.name.symbol) && !scopes.peek().get(expr.name.symbol).defined) {
+            context.error(expr.name, "Can't read local variable in its own initializer.");
         }
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = resolvedSlot;
+        return null;
+    }
+
+    @Override
+    public Void visitTempExpr(Temp expr) {
+        resolve(expr.expression);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = resolvedSlot;
         return null;
     }
 
@@ -297,52 +325,65 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope(){
-        scopes.add(new HashMap<String, Boolean>());
+        scopes.add(new HashMap<Symbol, Local>());
     }
     
     private void endScope(){
         scopes.pop();
     }
 
-    private void declare(Token name){
-        if(scopes.isEmpty()) return;
+    private int declare(Token name){
+        if(scopes.isEmpty()) return -1;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Already have a variable with this name in this scope.");
+        Map<Symbol, Local> scope = scopes.peek();
+        if (scope.containsKey(name.symbol)) {
+            context.error(name, "Already have a variable with this name in this scope.");
         }
         
-        scope.put(name.lexeme, false);
+        int slot = scope.size();
+        scope.put(name.symbol, new Local(slot, false));
+        return slot;
     }
 
     private void define(Token name){
         if(scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.symbol).defined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name){
+    // Returns how many scopes out the variable lives, or -1 for a global.
+    private int resolveLocal(Token name){
         for (int i = scopes.size()-1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            Local local = scopes.get(i).get(name.symbol);
+            if (local != null) {
+                resolvedSlot = local.slot;
+                return scopes.size() - 1 - i;
             }
             
         }
+        return -1;
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type){
         FunctionType enclosingFunction = currentFunction;
+        int enclosingForLoops = forLoops;
         currentFunction = type;
+        forLoops = 0;
 
+        // Slot 0 of every function's scope holds the receiver, which
+        // methods see as 'this'; parameters start at slot 1.
         beginScope();
+        boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+        scopes.peek().put(isMethod ? Symbol.THIS : Symbol.RECEIVER, new Local(0, true));
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
         resolve(function.body);
+        function.frameSize = scopes.peek().size();
         endScope();
 
         currentFunction = enclosingFunction;
+        forLoops = enclosingForLoops;
     }
 
     private void resolveWhile(Stmt.While stmt, LoopType type){
@@ -358,12 +399,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveFor(Stmt.For stmt, LoopType type){
         LoopType enclosingLoop = currentLoop;
         currentLoop = type;
+        forLoops++;
 
         resolve(stmt.initializer);
         resolve(stmt.condition);
         resolve(stmt.increment);
         resolve(stmt.body);
 
+        forLoops--;
         currentLoop = enclosingLoop;
     }
 }
@@ -12,6 +12,7 @@ import com.craftinginterpreters.lox.Expr.Literal;
 import com.craftinginterpreters.lox.Expr.Logical;
 import com.craftinginterpreters.lox.Expr.Set;
 import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
 import com.craftinginterpreters.lox.Expr.This;
 import com.craftinginterpreters.lox.Expr.Unary;
 import com.craftinginterpreters.lox.Expr.Variable;
@@ -24,7 +25,7 @@ public class RpnAstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitBinaryExpr(Binary expr) {
-        return parenthesize(Arrays.asList(expr.left, expr.right), expr.operator.lexeme);
+        return parenthesize(Arrays.asList(expr.left, expr.right), expr.operator.lexeme());
     }
 
     @Override
@@ -40,7 +41,7 @@ public class RpnAstPrinter implements Expr.Visitor<String> {
 
     @Override
     public String visitUnaryExpr(Unary expr) {
-        return parenthesize(Arrays.asList(expr.right), expr.operator.lexeme);
+        return parenthesize(Arrays.asList(expr.right), expr.operator.lexeme());
     }
 
     private String parenthesize(List<Expr> exprs, String name){
@@ -79,6 +80,11 @@ public class RpnAstPrinter implements Expr.Visitor<String> {
         throw new UnsupportedOperationException("Unimplemented method 'visitVariableExpr'");
     }
 
+    @Override
+    public String visitTempExpr(Temp expr) {
+        return expr.expression.accept(this);
+    }
+
     @Override
     public String visitAssignExpr(Assign expr) {
         // TODO Auto-generated method stub
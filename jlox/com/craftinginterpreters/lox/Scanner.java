@@ -2,51 +2,43 @@ package com.craftinginterpreters.lox;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-
+// Scans on demand: each scan() reads only as far as the tokens it adds,
+// so the Parser can consume a script a window of tokens at a time without
+// the whole token list ever existing.
 public class Scanner {
-    private final String source;    
-    private final List<Token> tokens = new ArrayList<>();
+    private final CharSequence source;    
+    private final LoxContext context;
+    // Where scanToken() adds the token it makes, if any.
+    private TokenBuffer tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
-    private static final HashMap<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and",     AND);
-        keywords.put("class",   CLASS);
-        keywords.put("else",    ELSE);
-        keywords.put("false",   FALSE);
-        keywords.put("fun",     FUN);
-        keywords.put("for",     FOR);
-        keywords.put("if",      IF);
-        keywords.put("nil",     NIL);
-        keywords.put("or",      OR);
-        keywords.put("print",   PRINT);
-        keywords.put("return",  RETURN);
-        keywords.put("super",   SUPER);
-        keywords.put("this",    THIS);
-        keywords.put("true",    TRUE);
-        keywords.put("var",     VAR);
-        keywords.put("while",   WHILE);
-        keywords.put("break",   BREAK);
-        keywords.put("continue",CONTINUE);
-    }
     
-    Scanner(String source){
+    Scanner(CharSequence source, LoxContext context){
         this.source = source;
+        this.context = context;
     }
     
-    List<Token> scanTokens(){
-        while (!isAtEnd()) {
+    TokenBuffer scanTokens(){
+        TokenBuffer tokens = new TokenBuffer(source);
+        scan(tokens, Integer.MAX_VALUE);
+        return tokens;
+    }
+
+    // Adds up to count more tokens to the buffer, the last of them EOF once
+    // the source runs out.
+    void scan(TokenBuffer tokens, int count){
+        this.tokens = tokens;
+        int size = tokens.size();
+        while (tokens.size() - size < count) {
+            if (isAtEnd()) {
+                tokens.add(EOF, current, 0, line, null);
+                break;
+            }
             start = current;
             scanToken();
         }
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        this.tokens = null;
     }
 
     private void scanToken(){
@@ -99,7 +91,11 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 }else {
-                    Lox.error(line, "Unexpected character.");
+                    context.error(line, "Unexpected character.");
+                    // Report a multi-byte UTF-8 character only once.
+                    if (source instanceof Utf8Source && c >= 0xc0) {
+                        while ((peek() & 0xc0) == 0x80) advance();
+                    }
                 }
             break;
         }
@@ -110,7 +106,7 @@ public class Scanner {
             advance();
         }
         if (isAtEnd()) {
-            Lox.error(line, "Unexpected end of comment");
+            context.error(line, "Unexpected end of comment");
         }else{
             //closing */
             advance();
@@ -121,10 +117,68 @@ public class Scanner {
     private void identifier(){
         while (isAlphaNumeric(peek()))advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if(type == null) type = IDENTIFIER;
-        addToken(type);
+        TokenType type = identifierType();
+        if (type != IDENTIFIER) {
+            addToken(type);
+            return;
+        }
+
+        // Interned straight from the source, so a name seen before costs
+        // no new String.
+        Symbol symbol = Symbol.intern(source, start, current);
+        tokens.add(IDENTIFIER, start, current - start, line, symbol);
+    }
+
+    // Tells keywords from identifiers by their characters, as clox does,
+    // without hashing or copying the name.
+    private TokenType identifierType(){
+        switch (source.charAt(start)) {
+            case 'a': return checkKeyword(1, "nd", AND);
+            case 'b': return checkKeyword(1, "reak", BREAK);
+            case 'c':
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'l': return checkKeyword(2, "ass", CLASS);
+                        case 'o': return checkKeyword(2, "ntinue", CONTINUE);
+                    }
+                }
+                break;
+            case 'e': return checkKeyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'a': return checkKeyword(2, "lse", FALSE);
+                        case 'o': return checkKeyword(2, "r", FOR);
+                        case 'u': return checkKeyword(2, "n", FUN);
+                    }
+                }
+                break;
+            case 'i': return checkKeyword(1, "f", IF);
+            case 'n': return checkKeyword(1, "il", NIL);
+            case 'o': return checkKeyword(1, "r", OR);
+            case 'p': return checkKeyword(1, "rint", PRINT);
+            case 'r': return checkKeyword(1, "eturn", RETURN);
+            case 's': return checkKeyword(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'h': return checkKeyword(2, "is", THIS);
+                        case 'r': return checkKeyword(2, "ue", TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", VAR);
+            case 'w': return checkKeyword(1, "hile", WHILE);
+        }
+        return IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type){
+        if (current - start != offset + rest.length()) return IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (source.charAt(start + offset + i) != rest.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 
     private void number(){
@@ -135,8 +189,21 @@ public class Scanner {
             while (isDIgit(peek()))advance();
         }
 
-        Double value = Double.parseDouble( source.substring(start, current) );
-        addToken(NUMBER, value);
+        tokens.add(NUMBER, start, current - start, line, numberValue());
+    }
+
+    // Whole numbers short enough to be exact are added up digit by digit,
+    // without cutting their text out of the source.
+    private double numberValue(){
+        if (current - start > 15) return Double.parseDouble(text(start, current));
+
+        long value = 0;
+        for (int i = start; i < current; i++) {
+            char c = source.charAt(i);
+            if (c == '.') return Double.parseDouble(text(start, current));
+            value = value * 10 + (c - '0');
+        }
+        return value;
     }
 
     private void string(){
@@ -146,7 +213,7 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated String.");
+            context.error(line, "Unterminated String.");
             return;
         }
         
@@ -154,17 +221,21 @@ public class Scanner {
         advance();
 
         // Trim the surrounding quotes.
-        String value = source.substring(start+1, current-1);
-        addToken(STRING, value);
+        String value = text(start+1, current-1);
+        tokens.add(STRING, start, current - start, line, value);
     }
 
     private void addToken(TokenType type){
-        addToken(type, null);
+        tokens.add(type, start, current - start, line, null);
+    }
+
+    private String text(int start, int end){
+        return text(source, start, end);
     }
 
-    private void addToken(TokenType type, Object literal){
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    static String text(CharSequence source, int start, int end){
+        if (source instanceof Utf8Source) return ((Utf8Source) source).text(start, end);
+        return source.subSequence(start, end).toString();
     }
 
     private boolean isAtEnd(){
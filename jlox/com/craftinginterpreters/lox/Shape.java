@@ -0,0 +1,41 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The field layout of an instance (a "hidden class"): which slot of
+// LoxInstance.fields holds each field. Instances of a class that get the
+// same fields in the same order share one Shape, reached from the class's
+// empty shape through the same chain of transitions, so a Shape also
+// identifies the class and can key inline caches.
+final class Shape {
+    final int size;
+    private final Map<Symbol, Integer> slots;
+    private final Map<Symbol, Shape> transitions = new HashMap<>();
+
+    Shape(){
+        this(new HashMap<>());
+    }
+
+    private Shape(Map<Symbol, Integer> slots){
+        this.size = slots.size();
+        this.slots = slots;
+    }
+
+    int slotOf(Symbol name){
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // The shape after adding a field, which gets the next slot.
+    Shape with(Symbol name){
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<Symbol, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, size);
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
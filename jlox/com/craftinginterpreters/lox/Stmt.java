@@ -26,6 +26,7 @@ abstract class Stmt {
         final Token name;
         final Expr.Variable superclass;
         final List<Stmt.Function> methods;
+        int slot = -1;
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -37,6 +38,7 @@ abstract class Stmt {
             this.statements = statements;
         }
         final List<Stmt> statements;
+        int frameSize = 8;
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -63,6 +65,8 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        int slot = -1;
+        int frameSize = 8;
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -115,6 +119,7 @@ abstract class Stmt {
         }
         final Token name;
         final Expr initializer;
+        int slot = -1;
 
         @Override
         <R> R accept(Visitor<R> visitor){
@@ -0,0 +1,108 @@
+package com.craftinginterpreters.lox;
+
+// An interned name. The Scanner turns every identifier and keyword into
+// the one Symbol for its text, and the runtime names it looks up by (the
+// 'init' method, 'this', natives) come from the same table. Maps keyed by
+// symbols therefore compare keys by identity, and the hash is computed
+// only once, when a name is first seen.
+final class Symbol {
+    // Open addressing over a power-of-two array, so a name can be looked
+    // up straight from the source text without building a String first.
+    // Lookups of names already interned take no lock, so scripts scanned on
+    // many threads at once do not queue up here; only adding a name does.
+    private static volatile Symbol[] table = new Symbol[256];
+    private static int count = 0;
+
+    static final Symbol INIT = intern("init");
+    static final Symbol THIS = intern("this");
+    static final Symbol SUPER = intern("super");
+    // Slot 0 of a function that is not a method, which has no receiver.
+    static final Symbol RECEIVER = intern("");
+
+    final String name;
+    private final int hash;
+
+    private Symbol(String name, int hash){
+        this.name = name;
+        this.hash = hash;
+    }
+
+    static Symbol intern(String name){
+        return intern(name, 0, name.length());
+    }
+
+    // The symbol for source[start, end).
+    static Symbol intern(CharSequence source, int start, int end){
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+
+        // A lookup racing with an insert may miss; the locked one decides.
+        Symbol symbol = find(table, source, start, end, hash);
+        if (symbol != null) return symbol;
+        return add(source, start, end, hash);
+    }
+
+    private static synchronized Symbol add(CharSequence source, int start, int end, int hash){
+        Symbol[] table = Symbol.table;
+        Symbol symbol = find(table, source, start, end, hash);
+        if (symbol != null) return symbol;
+
+        symbol = new Symbol(source.subSequence(start, end).toString(), hash);
+        if (++count * 2 > table.length) {
+            table = grow(table);
+        }
+        insert(table, symbol);
+        Symbol.table = table;
+        return symbol;
+    }
+
+    private static Symbol find(Symbol[] table, CharSequence source, int start, int end, int hash){
+        int mask = table.length - 1;
+        int index = mix(hash) & mask;
+        for (Symbol symbol = table[index]; symbol != null; symbol = table[index]) {
+            if (symbol.hash == hash && symbol.matches(source, start, end)) return symbol;
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    private static void insert(Symbol[] table, Symbol symbol){
+        int mask = table.length - 1;
+        int index = mix(symbol.hash) & mask;
+        while (table[index] != null) index = (index + 1) & mask;
+        table[index] = symbol;
+    }
+
+    private boolean matches(CharSequence source, int start, int end){
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int hash){
+        return hash ^ (hash >>> 16);
+    }
+
+    private static Symbol[] grow(Symbol[] old){
+        Symbol[] table = new Symbol[old.length * 2];
+        for (Symbol symbol : old) {
+            if (symbol != null) insert(table, symbol);
+        }
+        return table;
+    }
+
+    // Equality is identity, which interning makes the same as equal text.
+    @Override
+    public int hashCode(){
+        return hash;
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+}
@@ -2,18 +2,61 @@ package com.craftinginterpreters.lox;
 
 class Token{
     final TokenType type;
-    final String lexeme;
     final Object literal;
     final int line;
+    // The interned lexeme of identifiers, 'this' and 'super', null otherwise.
+    final Symbol symbol;
+    // Where the token is in the source it was scanned from. Tokens made up
+    // by the compiler start at -1.
+    final int start;
+    final int length;
+    // Only literal tokens keep the source, to cut their lexeme from it if
+    // it is ever asked for (in practice, by an error message).
+    private final CharSequence source;
+    private String lexeme;
 
     Token(TokenType type, String lexeme, Object literal, int line){
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER
+            ? Symbol.intern(lexeme) : null;
+        this.start = -1;
+        this.length = lexeme.length();
+        this.source = null;
+    }
+
+    // An identifier, keyword or punctuation token, whose lexeme is already
+    // a shared String.
+    Token(TokenType type, String lexeme, Symbol symbol, int start, int line){
+        this.type = type;
+        this.lexeme = lexeme;
+        this.literal = null;
+        this.line = line;
+        this.symbol = symbol;
+        this.start = start;
+        this.length = lexeme.length();
+        this.source = null;
+    }
+
+    // A number or string.
+    Token(TokenType type, Object literal, CharSequence source, int start, int length, int line){
+        this.type = type;
+        this.literal = literal;
+        this.line = line;
+        this.symbol = null;
+        this.start = start;
+        this.length = length;
+        this.source = source;
+    }
+
+    String lexeme(){
+        if (lexeme == null) lexeme = Scanner.text(source, start, start + length);
+        return lexeme;
     }
 
     public String toString(){
-        return type + " " + lexeme + " " + literal;
+        return type + " " + lexeme() + " " + literal;
     }
-}
\ No newline at end of file
+}
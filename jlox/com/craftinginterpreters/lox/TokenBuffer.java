@@ -0,0 +1,111 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+import java.util.Arrays;
+
+// Scanned tokens laid out as parallel arrays, one entry per token, instead
+// of a Token object each. A token costs 13 bytes in the primitive arrays
+// plus its reference in values, 4 bytes with compressed oops and 8 without,
+// so 17 or 21 in all; the Double or String a literal's value points to is
+// extra. A Token is made only when the Parser keeps one in the tree or
+// reports an error at it.
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    // The spelling of every token type that has only one, so tokens made
+    // from the buffer share a String instead of each cutting one out.
+    private static final String[] lexemes = new String[TYPES.length];
+
+    // How every token of a type is spelled, or null if they differ.
+    static String lexeme(TokenType type){
+        return lexemes[type.ordinal()];
+    }
+
+    static {
+        String[] spellings = {
+            "(", ")", "{", "}", ",", ".", "-", "+", ";", "/", "*",
+            "!", "!=", "=", "==", ">", ">=", "<", "<=",
+        };
+        for (int i = 0; i < spellings.length; i++) {
+            lexemes[LEFT_PAREN.ordinal() + i] = spellings[i];
+        }
+        for (TokenType type : TYPES) {
+            if (type.ordinal() >= AND.ordinal() && type != EOF) {
+                lexemes[type.ordinal()] = type.name().toLowerCase();
+            }
+        }
+        lexemes[EOF.ordinal()] = "";
+    }
+
+    private final CharSequence source;
+    private byte[] types = new byte[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    private int[] lines = new int[256];
+    // The number or string of a literal and the symbol of an identifier,
+    // kept apart from the arrays the Parser reads for every token.
+    private Object[] values = new Object[256];
+    private int size = 0;
+
+    TokenBuffer(CharSequence source){
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int length, int line, Object value){
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        values[size] = value;
+        size++;
+    }
+
+    // Empties the buffer for the next tokens, keeping its arrays.
+    void clear(){
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    int size(){
+        return size;
+    }
+
+    TokenType type(int index){
+        return TYPES[types[index]];
+    }
+
+    int line(int index){
+        return lines[index];
+    }
+
+    Object value(int index){
+        return values[index];
+    }
+
+    Token token(int index){
+        TokenType type = type(index);
+        switch (type) {
+            case IDENTIFIER:
+                Symbol symbol = (Symbol) values[index];
+                return new Token(type, symbol.name, symbol, starts[index], lines[index]);
+            case NUMBER:
+            case STRING:
+                return new Token(type, values[index], source, starts[index], lengths[index], lines[index]);
+            case THIS:
+                return new Token(type, lexemes[type.ordinal()], Symbol.THIS, starts[index], lines[index]);
+            case SUPER:
+                return new Token(type, lexemes[type.ordinal()], Symbol.SUPER, starts[index], lines[index]);
+            default:
+                return new Token(type, lexemes[type.ordinal()], null, starts[index], lines[index]);
+        }
+    }
+}
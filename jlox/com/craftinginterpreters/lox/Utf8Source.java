@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A script's UTF-8 bytes, seen by the Scanner one byte per char. Everything
+// outside string literals and comments is ASCII in Lox, so the Scanner lexes
+// the bytes as they are and only string literals (and the text of numbers)
+// are decoded, by text(). Files are memory-mapped, so a large script is
+// neither copied onto the heap nor decoded before the first token.
+final class Utf8Source implements CharSequence {
+    private final ByteBuffer bytes;
+
+    Utf8Source(ByteBuffer bytes){
+        this.bytes = bytes;
+    }
+
+    static Utf8Source map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            return new Utf8Source(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // The bytes themselves, with a position of their own.
+    ByteBuffer bytes(){
+        return bytes.duplicate();
+    }
+
+    // Non-ASCII bytes come out as chars 0x80-0xff, which the Scanner never
+    // takes for part of a token.
+    @Override
+    public char charAt(int index){
+        return (char) (bytes.get(index) & 0xff);
+    }
+
+    @Override
+    public int length(){
+        return bytes.limit();
+    }
+
+    // The bytes [start, end) decoded.
+    String text(int start, int end){
+        byte[] text = new byte[end - start];
+        bytes.get(start, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end){
+        return new Utf8Source(bytes.slice(start, end - start));
+    }
+
+    @Override
+    public String toString(){
+        return text(0, length());
+    }
+}
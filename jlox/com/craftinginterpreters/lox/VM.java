@@ -0,0 +1,630 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Stack-based virtual machine running the chunks VmCompiler produces, in the
+// style of clox's vm.c: one value stack shared by all call frames, closures
+// over upvalues that point into the stack until the variable goes out of
+// scope, and classes whose method tables are copied down on inheritance.
+// Globals and natives are shared with the Interpreter.
+class VM {
+    private static final int FRAMES_MAX = 1 << 16;
+
+    static class VmFunction {
+        final String name;
+        final int arity;
+        final Chunk chunk = new Chunk();
+        int upvalueCount;
+        int maxLocals;
+        int maxStack;
+
+        VmFunction(String name, int arity){
+            this.name = name;
+            this.arity = arity;
+        }
+
+        @Override
+        public String toString(){
+            if (name == null) return "<script>";
+            return "<fn " + name + " >";
+        }
+    }
+
+    static class VmUpvalue {
+        // Index into the VM stack while open, -1 once closed.
+        int location;
+        Object closed;
+        VmUpvalue next;
+
+        VmUpvalue(int location){
+            this.location = location;
+        }
+    }
+
+    static class VmClosure {
+        final VmFunction function;
+        final VmUpvalue[] upvalues;
+
+        VmClosure(VmFunction function){
+            this.function = function;
+            this.upvalues = new VmUpvalue[function.upvalueCount];
+        }
+
+        @Override
+        public String toString(){
+            return function.toString();
+        }
+    }
+
+    static class VmClass {
+        final String name;
+        final Map<Symbol, VmClosure> methods = new HashMap<>();
+
+        VmClass(String name){
+            this.name = name;
+        }
+
+        @Override
+        public String toString(){
+            return name;
+        }
+    }
+
+    static class VmInstance {
+        final VmClass klass;
+        final Map<Symbol, Object> fields = new HashMap<>();
+
+        VmInstance(VmClass klass){
+            this.klass = klass;
+        }
+
+        @Override
+        public String toString(){
+            return klass.name + " instance";
+        }
+    }
+
+    static class VmBoundMethod {
+        final Object receiver;
+        final VmClosure method;
+
+        VmBoundMethod(Object receiver, VmClosure method){
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString(){
+            return method.toString();
+        }
+    }
+
+    private static class CallFrame {
+        VmClosure closure;
+        int ip;
+        // Stack index of slot zero, and where the result goes on return.
+        int base;
+        int result;
+    }
+
+    // Marks the receiver slot of OP_GET_METHOD when the callee is a field
+    // rather than a method.
+    private static final Object NO_RECEIVER = new Object();
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+    private final VmCompiler compiler = new VmCompiler();
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private VmUpvalue openUpvalues;
+    private RuntimeError pendingError;
+
+    VM(Interpreter interpreter){
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    // Compiles a script once into something that runs it as often as
+    // needed on this VM.
+    Runnable load(List<Stmt> statements){
+        VmFunction function;
+        try {
+            function = compiler.compile(statements);
+        } catch (VmCompiler.TooLargeException error) {
+            return () -> interpreter.interpret(statements);
+        }
+        return () -> run(function);
+    }
+
+    private void run(VmFunction function){
+        try {
+            VmClosure closure = new VmClosure(function);
+            stack[0] = closure;
+            sp = 1;
+            call(closure, 0, 0, 0);
+            run();
+        } catch (RuntimeError error) {
+            interpreter.context.runtimeError(error);
+        } finally {
+            Arrays.fill(stack, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+            pendingError = null;
+        }
+    }
+
+    private void run(){
+        for (;;) {
+            try {
+                execute();
+                return;
+            } catch (RuntimeError error) {
+                if (!unwind(error)) throw error;
+            }
+        }
+    }
+
+    // Finds the innermost handler for the error in the active frames,
+    // discarding the frames that have none.
+    private boolean unwind(RuntimeError error){
+        while (frameCount > 0) {
+            CallFrame frame = frames[frameCount - 1];
+            int[] handler = frame.closure.function.chunk.handlerFor(frame.ip - 1);
+            if (handler != null) {
+                closeUpvalues(frame.base + handler[3]);
+                sp = frame.base + frame.closure.function.maxLocals;
+                frame.ip = handler[2];
+                pendingError = error;
+                return true;
+            }
+            closeUpvalues(frame.base);
+            frameCount--;
+        }
+        return false;
+    }
+
+    private void execute(){
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+        // The stack pointer lives in a local while running and is written
+        // back around calls, which use the field.
+        int sp = this.sp;
+        Object[] stack = this.stack;
+
+        try {
+            for (;;) {
+                switch (code[ip++]) {
+                    case OP_CONSTANT:
+                        stack[sp++] = constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        break;
+                    case OP_NIL: stack[sp++] = null; break;
+                    case OP_TRUE: stack[sp++] = true; break;
+                    case OP_FALSE: stack[sp++] = false; break;
+                    case OP_POP: sp--; break;
+                    case OP_GET_LOCAL: {
+                        Object value = stack[base + (((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff))];
+                        if (value == null) throw error(frame, ip, "Variable not been initialized.");
+                        stack[sp++] = value;
+                        break;
+                    }
+                    case OP_SET_LOCAL:
+                        stack[base + (((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff))] = stack[sp - 1];
+                        break;
+                    case OP_DEFINE_LOCAL:
+                        stack[base + (((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff))] = stack[--sp];
+                        break;
+                    case OP_GET_GLOBAL: {
+                        Token name = (Token) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        Object value = globals.get(name);
+                        if (value == null) throw new RuntimeError(name, "Variable not been initialized.");
+                        stack[sp++] = value;
+                        break;
+                    }
+                    case OP_SET_GLOBAL: {
+                        Token name = (Token) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        globals.assign(name, stack[sp - 1]);
+                        break;
+                    }
+                    case OP_DEFINE_GLOBAL: {
+                        Symbol name = (Symbol) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        globals.define(name, stack[--sp]);
+                        break;
+                    }
+                    case OP_GET_UPVALUE: {
+                        VmUpvalue upvalue = frame.closure.upvalues[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        Object value = upvalue.location == -1 ? upvalue.closed : stack[upvalue.location];
+                        if (value == null) throw error(frame, ip, "Variable not been initialized.");
+                        stack[sp++] = value;
+                        break;
+                    }
+                    case OP_SET_UPVALUE: {
+                        VmUpvalue upvalue = frame.closure.upvalues[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        if (upvalue.location == -1) {
+                            upvalue.closed = stack[sp - 1];
+                        } else {
+                            stack[upvalue.location] = stack[sp - 1];
+                        }
+                        break;
+                    }
+                    case OP_CLOSE_UPVALUE:
+                        closeUpvalues(base + (((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)));
+                        break;
+                    case OP_GET_PROPERTY: {
+                        Symbol name = (Symbol) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        Object object = stack[sp - 1];
+                        if (!(object instanceof VmInstance)) {
+                            throw error(frame, ip, "Only instances have properties.");
+                        }
+                        VmInstance instance = (VmInstance) object;
+                        Object value = instance.fields.get(name);
+                        if (value == null && !instance.fields.containsKey(name)) {
+                            VmClosure method = instance.klass.methods.get(name);
+                            if (method == null) throw error(frame, ip, "Undefined property '" + name + "'.");
+                            value = new VmBoundMethod(instance, method);
+                        }
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    case OP_CHECK_FIELDS:
+                        if (!(stack[sp - 1] instanceof VmInstance)) {
+                            throw error(frame, ip, "Only instances have fields.");
+                        }
+                        break;
+                    case OP_SET_PROPERTY: {
+                        Symbol name = (Symbol) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        Object value = stack[--sp];
+                        ((VmInstance) stack[sp - 1]).fields.put(name, value);
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    case OP_GET_METHOD: {
+                        Symbol name = (Symbol) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        Object object = stack[sp - 1];
+                        if (!(object instanceof VmInstance)) {
+                            throw error(frame, ip, "Only instances have properties.");
+                        }
+                        VmInstance instance = (VmInstance) object;
+                        Object value = instance.fields.get(name);
+                        if (value != null || instance.fields.containsKey(name)) {
+                            stack[sp - 1] = value;
+                            stack[sp++] = NO_RECEIVER;
+                        } else {
+                            VmClosure method = instance.klass.methods.get(name);
+                            if (method == null) throw error(frame, ip, "Undefined property '" + name + "'.");
+                            stack[sp - 1] = method;
+                            stack[sp++] = instance;
+                        }
+                        break;
+                    }
+                    case OP_GET_SUPER: {
+                        Symbol name = (Symbol) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        VmClass superclass = (VmClass) stack[--sp];
+                        VmClosure method = superclass.methods.get(name);
+                        if (method == null) throw error(frame, ip, "Undefined property '" + name + "'.");
+                        stack[sp - 1] = new VmBoundMethod(stack[sp - 1], method);
+                        break;
+                    }
+                    case OP_GET_SUPER_METHOD: {
+                        Symbol name = (Symbol) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        VmClass superclass = (VmClass) stack[sp - 1];
+                        VmClosure method = superclass.methods.get(name);
+                        if (method == null) throw error(frame, ip, "Undefined property '" + name + "'.");
+                        stack[sp - 1] = stack[sp - 2];
+                        stack[sp - 2] = method;
+                        break;
+                    }
+                    case OP_EQUAL: {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+                        break;
+                    }
+                    case OP_NOT_EQUAL: {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+                        break;
+                    }
+                    case OP_GREATER: {
+                        Object b = stack[--sp], a = stack[sp - 1];
+                        checkNumbers(frame, ip, a, b);
+                        stack[sp - 1] = (double) a > (double) b;
+                        break;
+                    }
+                    case OP_GREATER_EQUAL: {
+                        Object b = stack[--sp], a = stack[sp - 1];
+                        checkNumbers(frame, ip, a, b);
+                        stack[sp - 1] = (double) a >= (double) b;
+                        break;
+                    }
+                    case OP_LESS: {
+                        Object b = stack[--sp], a = stack[sp - 1];
+                        checkNumbers(frame, ip, a, b);
+                        stack[sp - 1] = (double) a < (double) b;
+                        break;
+                    }
+                    case OP_LESS_EQUAL: {
+                        Object b = stack[--sp], a = stack[sp - 1];
+                        checkNumbers(frame, ip, a, b);
+                        stack[sp - 1] = (double) a <= (double) b;
+                        break;
+                    }
+                    case OP_ADD: {
+                        Object b = stack[--sp], a = stack[sp - 1];
+                        if (a instanceof Double && b instanceof Double) {
+                            stack[sp - 1] = (double) a + (double) b;
+                        } else {
+                            stack[sp - 1] = Interpreter.add(token(frame, ip), a, b);
+                        }
+                        break;
+                    }
+                    case OP_SUBTRACT: {
+                        Object b = stack[--sp], a = stack[sp - 1];
+                        checkNumbers(frame, ip, a, b);
+                        stack[sp - 1] = (double) a - (double) b;
+                        break;
+                    }
+                    case OP_MULTIPLY: {
+                        Object b = stack[--sp], a = stack[sp - 1];
+                        checkNumbers(frame, ip, a, b);
+                        stack[sp - 1] = (double) a * (double) b;
+                        break;
+                    }
+                    case OP_DIVIDE: {
+                        Object b = stack[--sp], a = stack[sp - 1];
+                        checkNumbers(frame, ip, a, b);
+                        if ((double) b == 0) throw error(frame, ip, "Division by zero.");
+                        stack[sp - 1] = (double) a / (double) b;
+                        break;
+                    }
+                    case OP_NOT:
+                        stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                        break;
+                    case OP_NEGATE: {
+                        Object value = stack[sp - 1];
+                        if (!(value instanceof Double)) throw error(frame, ip, "Operand must be a number.");
+                        stack[sp - 1] = -(double) value;
+                        break;
+                    }
+                    case OP_PRINT:
+                        interpreter.context.out.println(Interpreter.stringify(stack[--sp]));
+                        break;
+                    case OP_JUMP: {
+                        int offset = ((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff);
+                        ip += offset;
+                        break;
+                    }
+                    case OP_JUMP_IF_FALSE: {
+                        int offset = ((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff);
+                        if (!Interpreter.isTruthy(stack[sp - 1])) ip += offset;
+                        break;
+                    }
+                    case OP_POP_JUMP_IF_FALSE: {
+                        int offset = ((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff);
+                        if (!Interpreter.isTruthy(stack[--sp])) ip += offset;
+                        break;
+                    }
+                    case OP_LOOP: {
+                        int offset = ((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff);
+                        ip -= offset;
+                        break;
+                    }
+                    case OP_CALL:
+                    case OP_INVOKE: {
+                        boolean invoke = code[ip - 1] == OP_INVOKE;
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        this.sp = sp;
+                        int slot = sp - argCount - 1;
+                        if (invoke) {
+                            callMethod(stack[slot - 1], argCount, slot);
+                        } else {
+                            callValue(stack[slot], argCount, slot, slot);
+                        }
+                        sp = this.sp;
+                        stack = this.stack;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OP_CLOSURE: {
+                        VmFunction function = (VmFunction) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        VmClosure closure = new VmClosure(function);
+                        for (int i = 0; i < closure.upvalues.length; i++) {
+                            boolean isLocal = code[ip++] == 1;
+                            int index = ((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff);
+                            closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                        }
+                        stack[sp++] = closure;
+                        break;
+                    }
+                    case OP_RETURN: {
+                        Object result = stack[--sp];
+                        closeUpvalues(base);
+                        frameCount--;
+                        if (frameCount == 0) return;
+
+                        sp = frame.result;
+                        Arrays.fill(stack, sp, base + frame.closure.function.maxLocals + frame.closure.function.maxStack, null);
+                        stack[sp++] = result;
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OP_CLASS: {
+                        String name = (String) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        stack[sp++] = new VmClass(name);
+                        break;
+                    }
+                    case OP_CHECK_SUPERCLASS:
+                        if (!(stack[sp - 1] instanceof VmClass)) {
+                            throw error(frame, ip, "Superclass must be a class.");
+                        }
+                        break;
+                    case OP_INHERIT: {
+                        VmClass superclass = (VmClass) stack[--sp];
+                        ((VmClass) stack[sp - 1]).methods.putAll(superclass.methods);
+                        break;
+                    }
+                    case OP_METHOD: {
+                        Symbol name = (Symbol) constants[((code[ip++] & 0xff) << 8) | (code[ip++] & 0xff)];
+                        VmClosure method = (VmClosure) stack[--sp];
+                        ((VmClass) stack[sp - 1]).methods.put(name, method);
+                        break;
+                    }
+                    case OP_RETHROW: {
+                        RuntimeError error = pendingError;
+                        pendingError = null;
+                        throw error;
+                    }
+                    default:
+                        throw new IllegalStateException("Unknown opcode " + code[ip - 1] + ".");
+                }
+            }
+        } catch (RuntimeError error) {
+            frame.ip = ip;
+            throw error;
+        }
+    }
+
+    private void checkNumbers(CallFrame frame, int ip, Object a, Object b){
+        if (a instanceof Double && b instanceof Double) return;
+        throw error(frame, ip, "Operand must be a numbers.");
+    }
+
+    // Runtime errors only need the line, which the chunk records for every
+    // byte of the instruction being executed.
+    private static Token token(CallFrame frame, int ip){
+        int line = frame.closure.function.chunk.lines[ip - 1];
+        return new Token(TokenType.EOF, "", null, line);
+    }
+
+    private static RuntimeError error(CallFrame frame, int ip, String message){
+        return new RuntimeError(token(frame, ip), message);
+    }
+
+    // Calls a method left by OP_GET_METHOD or OP_GET_SUPER_METHOD: the
+    // callee sits below the receiver, which becomes slot zero.
+    private void callMethod(Object callee, int argCount, int slot){
+        if (stack[slot] == NO_RECEIVER) {
+            stack[slot] = callee;
+            callValue(callee, argCount, slot, slot - 1);
+        } else {
+            call((VmClosure) callee, argCount, slot, slot - 1);
+        }
+    }
+
+    private void callValue(Object callee, int argCount, int slot, int result){
+        if (callee instanceof VmClosure) {
+            call((VmClosure) callee, argCount, slot, result);
+        } else if (callee instanceof VmBoundMethod) {
+            VmBoundMethod bound = (VmBoundMethod) callee;
+            stack[slot] = bound.receiver;
+            call(bound.method, argCount, slot, result);
+        } else if (callee instanceof VmClass) {
+            VmClass klass = (VmClass) callee;
+            VmInstance instance = new VmInstance(klass);
+            VmClosure initializer = klass.methods.get(Symbol.INIT);
+            if (initializer != null) {
+                stack[slot] = instance;
+                call(initializer, argCount, slot, result);
+            } else {
+                checkArity(0, argCount);
+                finishCall(instance, result);
+            }
+        } else if (callee instanceof LoxCallable) {
+            LoxCallable function = (LoxCallable) callee;
+            checkArity(function.arity(), argCount);
+            Object[] arguments = Arrays.copyOfRange(stack, sp - argCount, sp);
+            finishCall(function.call(interpreter, arguments), result);
+        } else {
+            throw error(frames[frameCount - 1], frames[frameCount - 1].ip, "Can only call functions and classes.");
+        }
+    }
+
+    private void finishCall(Object value, int result){
+        Arrays.fill(stack, result, sp, null);
+        sp = result;
+        stack[sp++] = value;
+    }
+
+    private void checkArity(int arity, int argCount){
+        if (argCount != arity) {
+            CallFrame frame = frames[frameCount - 1];
+            throw error(frame, frame.ip, "Expected " + arity + " arguments but got " + argCount + ".");
+        }
+    }
+
+    private void call(VmClosure closure, int argCount, int slot, int result){
+        VmFunction function = closure.function;
+        if (frameCount > 0) checkArity(function.arity, argCount);
+        if (frameCount == FRAMES_MAX) {
+            CallFrame frame = frames[frameCount - 1];
+            throw error(frame, frame.ip, "Stack overflow.");
+        }
+
+        int top = slot + function.maxLocals + function.maxStack;
+        if (top > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(top, stack.length * 2));
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null) frame = frames[frameCount] = new CallFrame();
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = slot;
+        frame.result = result;
+
+        // Locals past the parameters are stored by their declarations before
+        // they can be read, so the slots are reserved but not cleared.
+        sp = slot + function.maxLocals;
+    }
+
+    private VmUpvalue captureUpvalue(int location){
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.location > location) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.location == location) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(location);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last){
+        while (openUpvalues != null && openUpvalues.location >= last) {
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.location];
+            upvalue.location = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+}
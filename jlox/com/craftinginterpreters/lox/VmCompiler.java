@@ -0,0 +1,697 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.OpCode.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.Temp;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+import com.craftinginterpreters.lox.Stmt.Block;
+import com.craftinginterpreters.lox.Stmt.Break;
+import com.craftinginterpreters.lox.Stmt.Class;
+import com.craftinginterpreters.lox.Stmt.Continue;
+import com.craftinginterpreters.lox.Stmt.Expression;
+import com.craftinginterpreters.lox.Stmt.For;
+import com.craftinginterpreters.lox.Stmt.Function;
+import com.craftinginterpreters.lox.Stmt.If;
+import com.craftinginterpreters.lox.Stmt.Print;
+import com.craftinginterpreters.lox.Stmt.Return;
+import com.craftinginterpreters.lox.Stmt.Var;
+import com.craftinginterpreters.lox.Stmt.While;
+
+// Compiles the parsed (and resolved) program into chunks for the VM. Locals
+// and upvalues are laid out the clox way, except that every local gets a
+// fixed slot in its frame rather than living on the value stack, since a
+// 'for' initializer is declared in the enclosing scope and can run more
+// than once without a block around it.
+class VmCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    // Thrown when a function does not fit the two-byte operands, in which
+    // case the caller runs the program on the tree-walker instead.
+    static class TooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooLargeException(String message){
+            super(message);
+        }
+    }
+
+    private enum FunctionType {
+        FUNCTION,
+        INITIALIZER,
+        METHOD,
+        SCRIPT
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth){
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int locals;
+        final List<Integer> continueJumps = new ArrayList<>();
+        final List<Integer> breakJumps = new ArrayList<>();
+        // Set for 'for' loops whose increment has to run when the body
+        // exits early, like the finally block in Interpreter.visitForStmt.
+        final Expr increment;
+        final List<int[]> ranges = new ArrayList<>();
+        int rangeStart = -1;
+
+        Loop(Loop enclosing, int locals, Expr increment){
+            this.enclosing = enclosing;
+            this.locals = locals;
+            this.increment = increment;
+        }
+
+        void open(int position){
+            if (increment != null && rangeStart == -1) rangeStart = position;
+        }
+
+        void close(int position){
+            if (rangeStart != -1) {
+                ranges.add(new int[]{rangeStart, position});
+                rangeStart = -1;
+            }
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VM.VmFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<int[]> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        int stack = 0;
+        Loop loop;
+
+        FunctionState(FunctionState enclosing, VM.VmFunction function, FunctionType type){
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+        }
+    }
+
+    private FunctionState current;
+    private int line = 1;
+
+    VM.VmFunction compile(List<Stmt> statements){
+        current = new FunctionState(null, new VM.VmFunction(null, 0), FunctionType.SCRIPT);
+        addLocal("");
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(OP_NIL, 1);
+        emit(OP_RETURN, -1);
+        return endFunction();
+    }
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    private Chunk chunk(){
+        return current.function.chunk;
+    }
+
+    private void emit(byte op, int delta){
+        chunk().write(op, line);
+        current.stack += delta;
+        if (current.stack > current.function.maxStack) {
+            current.function.maxStack = current.stack;
+        }
+    }
+
+    private void emit(byte op, int operand, int delta){
+        emit(op, delta);
+        operand(operand);
+    }
+
+    private void operand(int value){
+        if (value > 0xffff) {
+            throw new TooLargeException("Operand too large for the VM.");
+        }
+        chunk().write(value >> 8, line);
+        chunk().write(value, line);
+    }
+
+    private int constant(Object value){
+        return chunk().addConstant(value);
+    }
+
+    private int emitJump(byte op, int delta){
+        emit(op, delta);
+        operand(0);
+        return chunk().count - 2;
+    }
+
+    private void patchJump(int offset){
+        int jump = chunk().count - offset - 2;
+        if (jump > 0xffff) {
+            throw new TooLargeException("Too much code to jump over.");
+        }
+        chunk().code[offset] = (byte) (jump >> 8);
+        chunk().code[offset + 1] = (byte) jump;
+    }
+
+    private void emitLoop(int start){
+        emit(OP_LOOP, 0);
+        int offset = chunk().count - start + 2;
+        if (offset > 0xffff) {
+            throw new TooLargeException("Loop body too large.");
+        }
+        operand(offset);
+    }
+
+    private VM.VmFunction endFunction(){
+        VM.VmFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.finish();
+        current = current.enclosing;
+        return function;
+    }
+
+    private void beginScope(){
+        current.scopeDepth++;
+    }
+
+    private void endScope(){
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        int captured = -1;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured) captured = locals.size() - 1;
+            locals.remove(locals.size() - 1);
+        }
+        if (captured != -1) emit(OP_CLOSE_UPVALUE, captured, 0);
+    }
+
+    // Jumping out of a loop leaves the scopes inside it. A closure compiled
+    // later in those scopes may still capture one of their locals, so the
+    // upvalues are closed whether or not anything is known to be captured.
+    private void exitScopes(Loop loop){
+        if (current.locals.size() > loop.locals) {
+            emit(OP_CLOSE_UPVALUE, loop.locals, 0);
+        }
+    }
+
+    private int addLocal(String name){
+        current.locals.add(new Local(name, current.scopeDepth));
+        int slot = current.locals.size() - 1;
+        if (slot + 1 > current.function.maxLocals) {
+            current.function.maxLocals = slot + 1;
+        }
+        return slot;
+    }
+
+    private static int resolveLocal(FunctionState state, String name){
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private static int addUpvalue(FunctionState state, int index, boolean isLocal){
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            int[] upvalue = state.upvalues.get(i);
+            if (upvalue[0] == index && (upvalue[1] == 1) == isLocal) return i;
+        }
+        state.upvalues.add(new int[]{index, isLocal ? 1 : 0});
+        return state.upvalues.size() - 1;
+    }
+
+    private static int resolveUpvalue(FunctionState state, String name){
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, upvalue, false);
+        return -1;
+    }
+
+    private void getVariable(Token name){
+        line = name.line;
+        int slot = resolveLocal(current, name.lexeme());
+        if (slot != -1) {
+            emit(OP_GET_LOCAL, slot, 1);
+        } else if ((slot = resolveUpvalue(current, name.lexeme())) != -1) {
+            emit(OP_GET_UPVALUE, slot, 1);
+        } else {
+            emit(OP_GET_GLOBAL, constant(name), 1);
+        }
+    }
+
+    private void setVariable(Token name){
+        line = name.line;
+        int slot = resolveLocal(current, name.lexeme());
+        if (slot != -1) {
+            emit(OP_SET_LOCAL, slot, 0);
+        } else if ((slot = resolveUpvalue(current, name.lexeme())) != -1) {
+            emit(OP_SET_UPVALUE, slot, 0);
+        } else {
+            emit(OP_SET_GLOBAL, constant(name), 0);
+        }
+    }
+
+    // Locals get their slot when declared so a recursive function can refer
+    // to itself; the value is stored by defineVariable.
+    private int declareVariable(Token name){
+        if (current.scopeDepth == 0) return -1;
+        return addLocal(name.lexeme());
+    }
+
+    private void defineVariable(int slot, Token name){
+        line = name.line;
+        if (slot == -1) {
+            emit(OP_DEFINE_GLOBAL, constant(name.symbol), -1);
+        } else {
+            emit(OP_DEFINE_LOCAL, slot, -1);
+        }
+    }
+
+    private void function(Function stmt, FunctionType type){
+        VM.VmFunction function = new VM.VmFunction(stmt.name.lexeme(), stmt.params.size());
+        current = new FunctionState(current, function, type);
+        addLocal(type == FunctionType.FUNCTION ? "" : "this");
+
+        beginScope();
+        for (Token param : stmt.params) {
+            addLocal(param.lexeme());
+        }
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+        emitReturnValue();
+        emit(OP_RETURN, -1);
+
+        List<int[]> upvalues = current.upvalues;
+        endFunction();
+
+        line = stmt.name.line;
+        emit(OP_CLOSURE, constant(function), 1);
+        for (int[] upvalue : upvalues) {
+            chunk().write(upvalue[1], line);
+            operand(upvalue[0]);
+        }
+    }
+
+    private void emitReturnValue(){
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OP_GET_LOCAL, 0, 1);
+        } else {
+            emit(OP_NIL, 1);
+        }
+    }
+
+    @Override
+    public Void visitClassStmt(Class stmt) {
+        int slot = declareVariable(stmt.name);
+
+        int superSlot = -1;
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+            line = stmt.superclass.name.line;
+            emit(OP_CHECK_SUPERCLASS, 0);
+            beginScope();
+            superSlot = addLocal("super");
+            emit(OP_DEFINE_LOCAL, superSlot, -1);
+        }
+
+        line = stmt.name.line;
+        emit(OP_CLASS, constant(stmt.name.lexeme()), 1);
+        if (stmt.superclass != null) {
+            emit(OP_GET_LOCAL, superSlot, 1);
+            emit(OP_INHERIT, -1);
+        }
+
+        for (Function method : stmt.methods) {
+            boolean isInitializer = method.name.symbol == Symbol.INIT;
+            function(method, isInitializer ? FunctionType.INITIALIZER : FunctionType.METHOD);
+            emit(OP_METHOD, constant(method.name.symbol), -1);
+        }
+
+        if (stmt.superclass != null) endScope();
+        defineVariable(slot, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        int slot = declareVariable(stmt.name);
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(slot, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emitReturnValue();
+        }
+
+        // The value stays on the stack while the increments of the loops
+        // being left run.
+        Loop loop = current.loop;
+        for (Loop l = loop; l != null; l = l.enclosing) {
+            if (l.increment == null) continue;
+            // An increment failing here is seen by the loops around this
+            // one, but not by this loop or the ones inside it.
+            for (Loop inner = loop; inner != l.enclosing; inner = inner.enclosing) {
+                inner.close(chunk().count);
+            }
+            compile(l.increment);
+            emit(OP_POP, -1);
+        }
+        line = stmt.keyword.line;
+        emit(OP_RETURN, -1);
+
+        for (Loop l = loop; l != null; l = l.enclosing) {
+            l.open(chunk().count);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        compile(stmt.expression);
+        emit(OP_POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        compile(stmt.Condition);
+        int elseJump = emitJump(OP_POP_JUMP_IF_FALSE, -1);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            int endJump = emitJump(OP_JUMP, 0);
+            patchJump(elseJump);
+            compile(stmt.elseBranch);
+            patchJump(endJump);
+        } else {
+            patchJump(elseJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        compile(stmt.expression);
+        emit(OP_PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OP_NIL, 1);
+        }
+        defineVariable(declareVariable(stmt.name), stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        Loop loop = new Loop(current.loop, current.locals.size(), null);
+
+        int top = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OP_POP_JUMP_IF_FALSE, -1);
+
+        current.loop = loop;
+        compile(stmt.body);
+        current.loop = loop.enclosing;
+
+        for (int jump : loop.continueJumps) patchJump(jump);
+        emitLoop(top);
+        patchJump(exitJump);
+        for (int jump : loop.breakJumps) patchJump(jump);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(For stmt) {
+        compile(stmt.initializer);
+
+        // A literal increment (the parser's stand-in for a missing one) has
+        // no effect, so it needs no handler or extra copies.
+        Expr increment = stmt.increment instanceof Literal ? null : stmt.increment;
+        Loop loop = new Loop(current.loop, current.locals.size(), increment);
+
+        int top = chunk().count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OP_POP_JUMP_IF_FALSE, -1);
+
+        current.loop = loop;
+        loop.open(chunk().count);
+        compile(stmt.body);
+        loop.close(chunk().count);
+        current.loop = loop.enclosing;
+
+        for (int jump : loop.continueJumps) patchJump(jump);
+        compile(stmt.increment);
+        emit(OP_POP, -1);
+        emitLoop(top);
+
+        for (int jump : loop.breakJumps) patchJump(jump);
+        if (increment != null) {
+            compile(increment);
+            emit(OP_POP, -1);
+        }
+        patchJump(exitJump);
+
+        if (!loop.ranges.isEmpty()) {
+            int afterJump = emitJump(OP_JUMP, 0);
+            int handler = chunk().count;
+            for (int[] range : loop.ranges) {
+                chunk().addHandler(range[0], range[1], handler, loop.locals);
+            }
+            compile(increment);
+            emit(OP_POP, -1);
+            emit(OP_RETHROW, 0);
+            patchJump(afterJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Break stmt) {
+        Loop loop = current.loop;
+        exitScopes(loop);
+        loop.breakJumps.add(emitJump(OP_JUMP, 0));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Continue stmt) {
+        Loop loop = current.loop;
+        exitScopes(loop);
+        loop.continueJumps.add(emitJump(OP_JUMP, 0));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Assign expr) {
+        compile(expr.value);
+        setVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Logical expr) {
+        compile(expr.left);
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OP_JUMP_IF_FALSE, 0);
+            int endJump = emitJump(OP_JUMP, 0);
+            patchJump(elseJump);
+            emit(OP_POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OP_JUMP_IF_FALSE, 0);
+            emit(OP_POP, -1);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Set expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emit(OP_CHECK_FIELDS, 0);
+        compile(expr.value);
+        line = expr.name.line;
+        emit(OP_SET_PROPERTY, constant(expr.name.symbol), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Super expr) {
+        getVariable(new Token(TokenType.THIS, "this", null, expr.keyword.line));
+        getVariable(new Token(TokenType.SUPER, "super", null, expr.keyword.line));
+        line = expr.method.line;
+        emit(OP_GET_SUPER, constant(expr.method.symbol), -1);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(This expr) {
+        getVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG_EQUAL:    emit(OP_NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL:   emit(OP_EQUAL, -1); break;
+            case GREATER:       emit(OP_GREATER, -1); break;
+            case GREATER_EQUAL: emit(OP_GREATER_EQUAL, -1); break;
+            case LESS:          emit(OP_LESS, -1); break;
+            case LESS_EQUAL:    emit(OP_LESS_EQUAL, -1); break;
+            case PLUS:          emit(OP_ADD, -1); break;
+            case MINUS:         emit(OP_SUBTRACT, -1); break;
+            case STAR:          emit(OP_MULTIPLY, -1); break;
+            case SLASH:         emit(OP_DIVIDE, -1); break;
+            default:            break;
+        }
+        return null;
+    }
+
+    // Method calls look the method up before the arguments are evaluated,
+    // like Interpreter.visitGetExpr does, and leave the callee and receiver
+    // on the stack for OP_INVOKE, so no bound method is allocated.
+    @Override
+    public Void visitCallExpr(Call expr) {
+        if (expr.arguments.size() > 255) {
+            throw new TooLargeException("Too many arguments.");
+        }
+
+        if (expr.callee instanceof Get) {
+            Get get = (Get) expr.callee;
+            compile(get.object);
+            line = get.name.line;
+            emit(OP_GET_METHOD, constant(get.name.symbol), 1);
+        } else if (expr.callee instanceof Super) {
+            Super sup = (Super) expr.callee;
+            getVariable(new Token(TokenType.THIS, "this", null, sup.keyword.line));
+            getVariable(new Token(TokenType.SUPER, "super", null, sup.keyword.line));
+            line = sup.method.line;
+            emit(OP_GET_SUPER_METHOD, constant(sup.method.symbol), 0);
+        } else {
+            compile(expr.callee);
+        }
+
+        boolean invoke = expr.callee instanceof Get || expr.callee instanceof Super;
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+
+        line = expr.paren.line;
+        emit(invoke ? OP_INVOKE : OP_CALL, -expr.arguments.size() - (invoke ? 1 : 0));
+        chunk().write(expr.arguments.size(), line);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emit(OP_GET_PROPERTY, constant(expr.name.symbol), 0);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Literal expr) {
+        Object value = expr.value;
+        if (value == null || value == TokenType.NIL) {
+            emit(OP_NIL, 1);
+        } else if (value.equals(true)) {
+            emit(OP_TRUE, 1);
+        } else if (value.equals(false)) {
+            emit(OP_FALSE, 1);
+        } else {
+            emit(OP_CONSTANT, constant(value), 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG:  emit(OP_NOT, 0); break;
+            case MINUS: emit(OP_NEGATE, 0); break;
+            default:    break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Variable expr) {
+        getVariable(expr.name);
+        return null;
+    }
+
+    // Temporaries are not kept by this engine, the expression just runs.
+    @Override
+    public Void visitTempExpr(Temp expr) {
+        compile(expr.expression);
+        return null;
+    }
+}
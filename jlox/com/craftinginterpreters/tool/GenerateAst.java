@@ -13,29 +13,30 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-        "Assign     : Token name, Expr value",
+        "Assign     : Token name, Expr value | int depth = -1, int slot",
             "Logical     : Expr left, Token operator, Expr right",
-            "Set         : Expr object, Token name, Expr value",
-            "Super       : Token keyword, Token method",
-            "This        : Token keyword",
-            "Binary      : Expr left, Token operator, Expr right",
-            "Call        : Expr callee, Token paren, List<Expr> arguments",
-            "Get         : Expr object, Token name",
+            "Set         : Expr object, Token name, Expr value | final PropertyCache cache = new PropertyCache()",
+            "Super       : Token keyword, Token method | int depth = -1, int slot",
+            "This        : Token keyword | int depth = -1, int slot",
+            "Binary      : Expr left, Token operator, Expr right | boolean generic",
+            "Call        : Expr callee, Token paren, List<Expr> arguments | boolean isTailCall",
+            "Get         : Expr object, Token name | final PropertyCache cache = new PropertyCache()",
             "Grouping    : Expr expression",
             "Literal     : Object value",
             "Unary       : Token operator, Expr right",
-            "Variable    : Token name"
+            "Variable    : Token name | int depth = -1, int slot",
+            "Temp        : Token name, Expr expression | int depth = -1, int slot"
             ));
         
         defineAst(outputDir, "Stmt", Arrays.asList(
-            "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
-            "Block      : List<Stmt> statements",
+            "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1",
+            "Block      : List<Stmt> statements | int frameSize = 8",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "Function   : Token name, List<Token> params, List<Stmt> body | int slot = -1, int frameSize = 8",
             "Return     : Token keyword, Expr value",
             "Print      : Expr expression",
             "If         : Expr Condition, Stmt thenBranch, Stmt elseBranch",
-            "Var        : Token name, Expr initializer",
+            "Var        : Token name, Expr initializer | int slot = -1",
             "While      : Expr condition, Stmt body",
             "For        : Stmt initializer, Expr condition, Expr increment, Stmt body",
             "Break      : Token keyword",
@@ -83,6 +84,14 @@ public class GenerateAst {
     }
 
     private static void defineType(PrintWriter writer, String baseName, String className, String fieldList){
+        // Fields after '|' are not constructor parameters; they are filled in
+        // by later passes (e.g. the Resolver) and so are left mutable.
+        String[] annotations = new String[]{};
+        if(fieldList.contains("|")){
+            annotations = fieldList.split("\\|")[1].trim().split(", ");
+            fieldList = fieldList.split("\\|")[0].trim();
+        }
+
         String[] fields = new String[]{};
         if(fieldList.length() > 0){
             fields = fieldList.split(", ");
@@ -102,6 +111,10 @@ public class GenerateAst {
             writer.println("        " + "final "+ field + ";");
         }
 
+        for (String annotation : annotations) {
+            writer.println("        " + annotation + ";");
+        }
+
         writer.println();
         writer.println("        " + "@Override");
         writer.println("        " + "<R> R accept(Visitor<R> visitor){");
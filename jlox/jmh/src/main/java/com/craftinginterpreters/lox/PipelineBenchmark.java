@@ -0,0 +1,131 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Each stage of running a script on its own, with the stages before it
+// done in setup, and the whole pipeline end to end, over clox's
+// benchmark scripts. It lives in the interpreter's package to reach the
+// stages directly.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xss16m")
+public class PipelineBenchmark {
+    // zoo_batch.lox runs for a fixed ten seconds, so it is left out.
+    @Param({
+        "binary_trees", "equality", "fib", "instantiation", "invocation",
+        "method_call", "properties", "string_equality", "trees", "zoo",
+    })
+    public String script;
+
+    private LoxContext context;
+    private String source;
+    private TokenBuffer tokens;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream input = PipelineBenchmark.class.getResourceAsStream("/benchmark/" + script + ".lox")) {
+            if (input == null) throw new IOException("No benchmark script " + script + ".");
+            source = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        // The scripts print their results; only the time matters here.
+        context = new LoxEngine().newContext(new PrintStream(OutputStream.nullOutputStream()), System.err);
+        tokens = new Scanner(source, context).scanTokens();
+    }
+
+    // Resolving and running both write into the tree, the one its slots
+    // and the other its inline caches, so each call gets a tree nothing
+    // has touched yet and measures a first run rather than a rerun. These
+    // are their own states so the other stages skip the setup per call.
+    @State(Scope.Thread)
+    public static class Parsed {
+        List<Stmt> statements;
+
+        @Setup(Level.Invocation)
+        public void setup(PipelineBenchmark pipeline){
+            statements = new Parser(pipeline.tokens, pipeline.context).parse();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Prepared {
+        List<Stmt> statements;
+
+        @Setup(Level.Invocation)
+        public void setup(PipelineBenchmark pipeline){
+            statements = pipeline.prepare(new Parser(pipeline.tokens, pipeline.context).parse());
+        }
+    }
+
+    // What LoxContext.prepare() does after parsing.
+    private List<Stmt> prepare(List<Stmt> statements){
+        new Resolver(context).resolve(statements);
+        statements = new Optimizer().optimize(statements);
+        return new Hoister(context, true).hoist(statements);
+    }
+
+    @Benchmark
+    public TokenBuffer scan(){
+        return new Scanner(source, context).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse(){
+        return new Parser(tokens, context).parse();
+    }
+
+    // A call is short enough here that JMH's timing of each one on its
+    // own shows in the result, so take it as an upper bound.
+    @Benchmark
+    public List<Stmt> resolve(Parsed parsed){
+        new Resolver(context).resolve(parsed.statements);
+        return parsed.statements;
+    }
+
+    // A fresh Interpreter each time, so globals do not carry over.
+    @Benchmark
+    public void interpret(Prepared prepared){
+        new Interpreter(context).interpret(prepared.statements);
+    }
+
+    @Benchmark
+    public void endToEnd(){
+        new Interpreter(context).interpret(prepare(new Parser(source, context).parse()));
+    }
+
+    // The allocation rate comes from the GC profiler, which is always on.
+    // Any other JMH options can be given as usual.
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}